@@ -0,0 +1,75 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.psi.PsiFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:40
+ *
+ * Cost of a full parse of a template: the bare directive scan, and the scan plus range creation
+ * and include resolution the highlighter does on open.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class IncludeParserBenchmark {
+	@Param({"1000", "10000", "100000"})
+	public int lines;
+
+	@Param({"0.01", "0.1", "0.5"})
+	public double includeRatio;
+
+	private final MTDirectiveScanner scanner = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+	private CharSequence text;
+	private Editor editor;
+	private PsiFile psiFile;
+	private EditorIncludeLinkParser parser;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		StandIns.TemplateDocument document = new StandIns.TemplateDocument(TemplateGenerator.generate(lines, includeRatio, 42));
+		text = document.getCharsSequence();
+		editor = StandIns.editor(document);
+
+		Project project = StandIns.project();
+		StandIns.TemplateDirectory templates = new StandIns.TemplateDirectory(null, "templates");
+		psiFile = StandIns.psiFile(project, new StandIns.TemplateDirectory(templates, "page.html"));
+		parser = new EditorIncludeLinkParser(project);
+	}
+
+	@Benchmark
+	public int[] scanOnly() {
+		return scanner.findIncludePaths(text, 0, text.length());
+	}
+
+	/**
+	 * Include resolution hits the path cache after the first invocation, as it does on a reparse in the IDE.
+	 */
+	@Benchmark
+	public List<IncludeLinkTextRange> fullParse() {
+		return parser.getIncludeLinkTextRange(psiFile, editor, 0, text.length());
+	}
+}
@@ -0,0 +1,148 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+import com.intellij.psi.PsiFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:55
+ *
+ * Cost of keeping the include ranges of an already parsed template current while it is edited.
+ * Every edit goes the way IncludeLinkHighlighter handles it: ranges under the replaced text are forgotten,
+ * the tail is shifted, the touched lines are marked dirty, reparsed and merged into the store.
+ * Markup is left out, it needs a real editor. Each operation is followed by the edit undoing it,
+ * so the template stays the same between invocations.
+ * Edits at alternating far apart places are the worst case of the lazy tail shift of the range store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class IncrementalHighlightBenchmark {
+	private static final int PASTED_LINES = 1000;
+
+	@Param({"1000", "10000", "100000"})
+	public int lines;
+
+	@Param({"0.01", "0.1", "0.5"})
+	public double includeRatio;
+
+	private StandIns.TemplateDocument document;
+	private Editor editor;
+	private PsiFile psiFile;
+	private EditorIncludeLinkParser parser;
+	private IncludeLinkRangeStore ranges;
+	private final DirtyRegionSet dirtyRegions = new DirtyRegionSet();
+	private final List<IncludeLinkTextRange> forgotten = new ArrayList<IncludeLinkTextRange>();
+	private final List<IncludeLinkTextRange> remembered = new ArrayList<IncludeLinkTextRange>();
+	private final List<IncludeLinkTextRange> changed = new ArrayList<IncludeLinkTextRange>();
+	private String pastedBlock;
+	private int editOffset;
+	private int nearOffset;
+	private int farOffset;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		document = new StandIns.TemplateDocument(TemplateGenerator.generate(lines, includeRatio, 42));
+		editor = StandIns.editor(document);
+
+		Project project = StandIns.project();
+		StandIns.TemplateDirectory templates = new StandIns.TemplateDirectory(null, "templates");
+		psiFile = StandIns.psiFile(project, new StandIns.TemplateDirectory(templates, "page.html"));
+		parser = new EditorIncludeLinkParser(project);
+		ranges = new IncludeLinkRangeStore(psiFile);
+
+		pastedBlock = TemplateGenerator.generate(PASTED_LINES, includeRatio, 7);
+		// edit in the middle, so half of the ranges have to be shifted
+		editOffset = document.getLineStartOffset(document.getLineCount() / 2);
+		nearOffset = document.getLineStartOffset(document.getLineCount() / 10);
+		farOffset = document.getLineStartOffset(document.getLineCount() * 9 / 10);
+
+		dirtyRegions.add(0, document.getTextLength());
+		reparseDirtyRegions();
+	}
+
+	@Benchmark
+	public int typeInclude() {
+		String line = TemplateGenerator.includeLine(5) + "\n";
+		replace(editOffset, editOffset, line);
+		replace(editOffset, editOffset + line.length(), "");
+		return ranges.size();
+	}
+
+	@Benchmark
+	public int deleteLine() {
+		int end = document.getLineEndOffset(document.getLineNumber(editOffset)) + 1;
+		String line = document.getCharsSequence().subSequence(editOffset, end).toString();
+		replace(editOffset, end, "");
+		replace(editOffset, editOffset, line);
+		return ranges.size();
+	}
+
+	@Benchmark
+	public int pasteBlock() {
+		replace(editOffset, editOffset, pastedBlock);
+		replace(editOffset, editOffset + pastedBlock.length(), "");
+		return ranges.size();
+	}
+
+	@Benchmark
+	public int typeFarApart() {
+		String line = TemplateGenerator.includeLine(5) + "\n";
+		int length = line.length();
+		replace(nearOffset, nearOffset, line);
+		replace(farOffset + length, farOffset + length, line);
+		replace(nearOffset, nearOffset + length, "");
+		replace(farOffset, farOffset + length, "");
+		return ranges.size();
+	}
+
+	private void replace(final int start, final int end, final String replacement) {
+		if (end > start) {
+			ranges.removeAll(ranges.getOverlapping(start, end));
+		}
+		document.replaceString(start, end, replacement);
+
+		int delta = replacement.length() - (end - start);
+		if (delta != 0) {
+			ranges.shiftTail(start, delta);
+		}
+		dirtyRegions.shift(start, end - start, replacement.length());
+		dirtyRegions.add(start, start + replacement.length());
+		reparseDirtyRegions();
+	}
+
+	private void reparseDirtyRegions() {
+		for (int i = 0; i < dirtyRegions.size(); i++) {
+			int startLineOffset = IncludeLinkHighlighter.getStartLineOffset(editor, dirtyRegions.getStart(i));
+			int endLineOffset = IncludeLinkHighlighter.getEndLineOffset(editor, dirtyRegions.getEnd(i));
+			List<IncludeLinkTextRange> newRanges = parser.getIncludeLinkTextRange(psiFile, editor, startLineOffset, endLineOffset);
+			ranges.replace(startLineOffset, endLineOffset, newRanges, forgotten, remembered, changed);
+		}
+		dirtyRegions.clear();
+		forgotten.clear();
+		remembered.clear();
+		changed.clear();
+	}
+}
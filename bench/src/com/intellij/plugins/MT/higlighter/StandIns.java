@@ -0,0 +1,286 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileSystem;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:25
+ *
+ * Headless stand-ins for the platform objects the include parser touches, so it runs without an IDE.
+ * Interfaces are proxies answering only the calls the parser makes and failing loudly on anything else.
+ */
+final class StandIns {
+
+	private StandIns() {
+	}
+
+	/**
+	 * Text document with an incrementally maintained line index, like the platform document.
+	 */
+	static final class TemplateDocument {
+		private final StringBuilder text;
+		private int[] lineStarts = new int[16];
+		private int lineCount = 0;
+		private long modificationStamp = 0;
+
+		TemplateDocument(final String text) {
+			this.text = new StringBuilder(text);
+			lineStarts[lineCount++] = 0;
+			addLineStarts(0, text.length());
+		}
+
+		CharSequence getCharsSequence() {
+			return text;
+		}
+
+		int getTextLength() {
+			return text.length();
+		}
+
+		int getLineCount() {
+			return lineCount;
+		}
+
+		int getLineNumber(final int offset) {
+			int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+			return index >= 0 ? index : -index - 2;
+		}
+
+		int getLineStartOffset(final int line) {
+			return lineStarts[line];
+		}
+
+		int getLineEndOffset(final int line) {
+			return line + 1 < lineCount ? lineStarts[line + 1] - 1 : text.length();
+		}
+
+		long getModificationStamp() {
+			return modificationStamp;
+		}
+
+		void replaceString(final int start, final int end, final String replacement) {
+			int firstLine = getLineNumber(start);
+			int lastLine = getLineNumber(end);
+			int delta = replacement.length() - (end - start);
+
+			// drop line starts inside the replaced text, shift the ones after it
+			System.arraycopy(lineStarts, lastLine + 1, lineStarts, firstLine + 1, lineCount - lastLine - 1);
+			lineCount -= lastLine - firstLine;
+			for (int i = firstLine + 1; i < lineCount; i++) {
+				lineStarts[i] += delta;
+			}
+
+			text.replace(start, end, replacement);
+			addLineStarts(start, start + replacement.length());
+			modificationStamp++;
+		}
+
+		private void addLineStarts(final int start, final int end) {
+			int count = 0;
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i) == '\n') {
+					count++;
+				}
+			}
+			if (count == 0) {
+				return;
+			}
+
+			int line = getLineNumber(start) + 1;
+			if (lineCount + count > lineStarts.length) {
+				lineStarts = Arrays.copyOf(lineStarts, Math.max(lineStarts.length * 2, lineCount + count));
+			}
+			System.arraycopy(lineStarts, line, lineStarts, line + count, lineCount - line);
+			lineCount += count;
+			for (int i = start; i < end; i++) {
+				if (text.charAt(i) == '\n') {
+					lineStarts[line++] = i + 1;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Directory where every include resolves, so the parser creates ranges for all of them.
+	 */
+	static final class TemplateDirectory extends VirtualFile {
+		private final TemplateDirectory parent;
+		private final String name;
+
+		TemplateDirectory(final TemplateDirectory parent, final String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		public VirtualFile findFileByRelativePath(@NotNull final String relPath) {
+			return new TemplateDirectory(this, relPath);
+		}
+
+		@NotNull
+		public String getName() {
+			return name;
+		}
+
+		@NotNull
+		public VirtualFileSystem getFileSystem() {
+			throw new UnsupportedOperationException();
+		}
+
+		public String getPath() {
+			return parent == null ? "/" + name : parent.getPath() + "/" + name;
+		}
+
+		public boolean isWritable() {
+			return false;
+		}
+
+		public boolean isDirectory() {
+			return true;
+		}
+
+		public boolean isValid() {
+			return true;
+		}
+
+		public VirtualFile getParent() {
+			return parent;
+		}
+
+		public VirtualFile[] getChildren() {
+			return new VirtualFile[0];
+		}
+
+		@NotNull
+		public OutputStream getOutputStream(final Object requestor, final long newModificationStamp, final long newTimeStamp) {
+			throw new UnsupportedOperationException();
+		}
+
+		@NotNull
+		public byte[] contentsToByteArray() {
+			return new byte[0];
+		}
+
+		public long getTimeStamp() {
+			return 0;
+		}
+
+		public long getLength() {
+			return 0;
+		}
+
+		public void refresh(final boolean asynchronous, final boolean recursive, final Runnable postRunnable) {
+		}
+
+		public InputStream getInputStream() {
+			return new ByteArrayInputStream(new byte[0]);
+		}
+	}
+
+	static Project project() {
+		final Project[] project = new Project[1];
+		final IncludePathCache[] cache = new IncludePathCache[1];
+		project[0] = proxy(Project.class, new InvocationHandler() {
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if ("getComponent".equals(method.getName()) && args.length == 1 && args[0] == IncludePathCache.class) {
+					if (cache[0] == null) {
+						cache[0] = new IncludePathCache(project[0]);
+					}
+					return cache[0];
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+		return project[0];
+	}
+
+	static PsiFile psiFile(final Project project, final VirtualFile virtualFile) {
+		return proxy(PsiFile.class, new InvocationHandler() {
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if ("getProject".equals(method.getName())) {
+					return project;
+				}
+				if ("getVirtualFile".equals(method.getName())) {
+					return virtualFile;
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+	}
+
+	static Editor editor(final TemplateDocument template) {
+		final Document document = proxy(Document.class, new InvocationHandler() {
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				String name = method.getName();
+				if ("getCharsSequence".equals(name)) {
+					return template.getCharsSequence();
+				}
+				if ("getTextLength".equals(name)) {
+					return template.getTextLength();
+				}
+				if ("getLineCount".equals(name)) {
+					return template.getLineCount();
+				}
+				if ("getLineNumber".equals(name)) {
+					return template.getLineNumber((Integer) args[0]);
+				}
+				if ("getLineStartOffset".equals(name)) {
+					return template.getLineStartOffset((Integer) args[0]);
+				}
+				if ("getLineEndOffset".equals(name)) {
+					return template.getLineEndOffset((Integer) args[0]);
+				}
+				if ("getModificationStamp".equals(name)) {
+					return template.getModificationStamp();
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+		return proxy(Editor.class, new InvocationHandler() {
+			public Object invoke(final Object proxy, final Method method, final Object[] args) {
+				if ("getDocument".equals(method.getName())) {
+					return document;
+				}
+				if ("isDisposed".equals(method.getName())) {
+					return false;
+				}
+				return unsupported(proxy, method, args);
+			}
+		});
+	}
+
+	private static Object unsupported(final Object proxy, final Method method, final Object[] args) {
+		String name = method.getName();
+		if ("hashCode".equals(name)) {
+			return System.identityHashCode(proxy);
+		}
+		if ("equals".equals(name)) {
+			return proxy == args[0];
+		}
+		if ("toString".equals(name)) {
+			return "StandIn(" + method.getDeclaringClass().getSimpleName() + ")";
+		}
+		throw new UnsupportedOperationException(method.toString());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(final Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(StandIns.class.getClassLoader(), new Class[]{type}, handler);
+	}
+}
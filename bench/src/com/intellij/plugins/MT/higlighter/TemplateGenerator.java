@@ -0,0 +1,47 @@
+package com.intellij.plugins.MT.higlighter;
+
+import java.util.Random;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:10
+ *
+ * Synthetic MT templates: HTML markup lines with INCLUDE directives in comments spread at a given density.
+ */
+final class TemplateGenerator {
+	private static final String[] MARKUP_LINES = new String[]{
+			"<div class=\"b-layout__column\">",
+			"\t<a href=\"/cgi-bin/msglist?folder=0\" class=\"js-folder\">Inbox</a>",
+			"\t<span class=\"b-counter\">{{COUNTER}}</span>",
+			"</div>",
+			"<!-- IF DEBUG -->debug<!-- /IF -->",
+			"\t\t<input type=\"hidden\" name=\"token\" value=\"{{TOKEN}}\"/>",
+	};
+
+	private TemplateGenerator() {
+	}
+
+	/**
+	 * @param lines        number of lines to generate
+	 * @param includeRatio share of lines holding an INCLUDE directive, 0..1
+	 */
+	static String generate(final int lines, final double includeRatio, final long seed) {
+		Random random = new Random(seed);
+		StringBuilder builder = new StringBuilder(lines * 48);
+		for (int i = 0; i < lines; i++) {
+			if (random.nextDouble() < includeRatio) {
+				builder.append(includeLine(random.nextInt(64)));
+			} else {
+				builder.append(MARKUP_LINES[random.nextInt(MARKUP_LINES.length)]);
+			}
+			builder.append('\n');
+		}
+		return builder.toString();
+	}
+
+	static String includeLine(final int fragment) {
+		return "<!-- INCLUDE blocks/fragment" + fragment + (fragment % 3 == 0 ? ".html" : ".tpl") + " -->";
+	}
+}
@@ -0,0 +1,98 @@
+package com.intellij.plugins.MT.cli;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Include cycles of a whole template tree: Tarjan's strongly connected components in one linear pass.
+ * The depth first search keeps its own stack, as include chains can be deeper than the thread stack.
+ */
+final class IncludeGraph {
+
+	private IncludeGraph() {
+	}
+
+	/**
+	 * Returns members of every cycle, i.e. of every component with more than one template
+	 * or with a template including itself.
+	 */
+	static List<int[]> findCycles(final int[][] successors) {
+		int count = successors.length;
+		int[] order = new int[count];
+		int[] lowLink = new int[count];
+		boolean[] onStack = new boolean[count];
+		int[] componentStack = new int[count];
+		int componentStackSize = 0;
+		int[] callStack = new int[count];
+		int[] nextEdge = new int[count];
+		int visited = 0;
+		List<int[]> cycles = new ArrayList<int[]>();
+
+		Arrays.fill(order, -1);
+		for (int root = 0; root < count; root++) {
+			if (order[root] >= 0) {
+				continue;
+			}
+
+			int depth = 0;
+			callStack[depth++] = root;
+			order[root] = lowLink[root] = visited++;
+			componentStack[componentStackSize++] = root;
+			onStack[root] = true;
+			nextEdge[root] = 0;
+
+			while (depth > 0) {
+				int node = callStack[depth - 1];
+				int[] targets = successors[node];
+				if (nextEdge[node] < targets.length) {
+					int target = targets[nextEdge[node]++];
+					if (order[target] < 0) {
+						callStack[depth++] = target;
+						order[target] = lowLink[target] = visited++;
+						componentStack[componentStackSize++] = target;
+						onStack[target] = true;
+						nextEdge[target] = 0;
+					} else if (onStack[target]) {
+						lowLink[node] = Math.min(lowLink[node], order[target]);
+					}
+					continue;
+				}
+
+				depth--;
+				if (depth > 0) {
+					int parent = callStack[depth - 1];
+					lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
+				}
+				if (lowLink[node] != order[node]) {
+					continue;
+				}
+
+				int start = componentStackSize;
+				do {
+					onStack[componentStack[--start]] = false;
+				} while (componentStack[start] != node);
+				int[] component = Arrays.copyOfRange(componentStack, start, componentStackSize);
+				componentStackSize = start;
+				if (component.length > 1 || includesItself(successors, node)) {
+					cycles.add(component);
+				}
+			}
+		}
+		return cycles;
+	}
+
+	private static boolean includesItself(final int[][] successors, final int node) {
+		for (int target : successors[node]) {
+			if (target == node) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,136 @@
+package com.intellij.plugins.MT.cli;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Command line check of a template tree without the IDE: reports includes which do not resolve
+ * and include cycles, using the directive scanner and path resolution of the plugin.
+ * Exit status is 0 for a clean tree, 1 if anything was reported and 2 for bad usage.
+ */
+public final class MTAnalyzer {
+
+	private MTAnalyzer() {
+	}
+
+	public static void main(final String[] args) throws IOException {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Path root = null;
+		for (int i = 0; i < args.length; i++) {
+			if ("--threads".equals(args[i]) && i + 1 < args.length) {
+				try {
+					threads = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					root = null;
+					break;
+				}
+			} else if (root == null && !args[i].startsWith("-")) {
+				root = Paths.get(args[i]).toAbsolutePath().normalize();
+			} else {
+				root = null;
+				break;
+			}
+		}
+		if (root == null || threads < 1 || !Files.isDirectory(root)) {
+			System.err.println("Usage: MTAnalyzer [--threads N] <template root>");
+			System.exit(2);
+		}
+
+		System.exit(analyze(root, threads, System.out) ? 0 : 1);
+	}
+
+	/**
+	 * Prints the report for the templates under <code>root</code> and returns true if there was nothing to report.
+	 */
+	static boolean analyze(final Path root, final int threads, final PrintStream out) throws IOException {
+		long start = System.nanoTime();
+		final TemplateTree tree = TemplateTree.walk(root);
+		long walked = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new ScanTask(tree, 0, tree.size()));
+		} finally {
+			pool.shutdown();
+		}
+		long scanned = System.nanoTime();
+
+		List<int[]> cycles = IncludeGraph.findCycles(tree.getSuccessors());
+		long finished = System.nanoTime();
+
+		// walk order depends on the file system, the report does not
+		Integer[] order = new Integer[tree.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(final Integer o1, final Integer o2) {
+				return tree.getDisplayPath(o1).compareTo(tree.getDisplayPath(o2));
+			}
+		});
+
+		int includeCount = 0;
+		int brokenCount = 0;
+		int errorCount = 0;
+		for (int i : order) {
+			ScannedTemplate result = tree.getResult(i);
+			if (result.getError() != null) {
+				out.println(tree.getDisplayPath(i) + ": cannot read: " + result.getError());
+				errorCount++;
+				continue;
+			}
+			includeCount += result.getIncludeCount();
+			for (String broken : result.getBrokenIncludes()) {
+				out.println(tree.getDisplayPath(i) + ":" + broken);
+				brokenCount++;
+			}
+		}
+		final String[] cycleMembers = new String[cycles.size()];
+		Integer[] cycleOrder = new Integer[cycles.size()];
+		for (int c = 0; c < cycleMembers.length; c++) {
+			int[] cycle = cycles.get(c);
+			String[] paths = new String[cycle.length];
+			for (int i = 0; i < cycle.length; i++) {
+				paths[i] = tree.getDisplayPath(cycle[i]);
+			}
+			Arrays.sort(paths);
+			StringBuilder members = new StringBuilder();
+			for (String path : paths) {
+				members.append(members.length() == 0 ? "" : ", ").append(path);
+			}
+			cycleMembers[c] = members.toString();
+			cycleOrder[c] = c;
+		}
+		// by the first member, cycles share no templates
+		Arrays.sort(cycleOrder, new Comparator<Integer>() {
+			public int compare(final Integer o1, final Integer o2) {
+				return cycleMembers[o1].compareTo(cycleMembers[o2]);
+			}
+		});
+		for (int c : cycleOrder) {
+			int length = cycles.get(c).length;
+			out.println("include cycle of " + length + " template" + (length == 1 ? "" : "s") + ": " + cycleMembers[c]);
+		}
+
+		out.println(tree.size() + " templates, " + includeCount + " includes, " + brokenCount + " broken, "
+				+ cycles.size() + " cycles, " + errorCount + " unreadable; walk " + millis(start, walked) + " ms, scan "
+				+ millis(walked, scanned) + " ms on " + threads + " threads, cycles " + millis(scanned, finished) + " ms");
+		return brokenCount == 0 && errorCount == 0 && cycles.isEmpty();
+	}
+
+	private static long millis(final long from, final long to) {
+		return (to - from) / 1000000;
+	}
+}
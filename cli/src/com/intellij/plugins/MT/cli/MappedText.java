@@ -0,0 +1,75 @@
+package com.intellij.plugins.MT.cli;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Bytes of a template seen as chars without decoding them. Directives are ASCII, so the scanner can run
+ * right over the bytes; offsets are byte offsets and only the paths taken out are decoded as UTF-8.
+ * Large files are memory mapped, small ones are read into a heap buffer since a mapping costs more than the read.
+ */
+final class MappedText implements CharSequence {
+	private static final int MAP_THRESHOLD = 64 * 1024;
+
+	// exactly one of them is set
+	private final byte[] bytes;
+	private final ByteBuffer buffer;
+	private final int offset;
+	private final int length;
+
+	private MappedText(final byte[] bytes, final ByteBuffer buffer, final int offset, final int length) {
+		this.bytes = bytes;
+		this.buffer = buffer;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	static MappedText read(final Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Template too large: " + file);
+			}
+			if (size >= MAP_THRESHOLD) {
+				return new MappedText(null, channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int) size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// read until full or end of file
+			}
+			return new MappedText(buffer.array(), null, 0, buffer.position());
+		}
+	}
+
+	public int length() {
+		return length;
+	}
+
+	public char charAt(final int index) {
+		return (char) ((bytes != null ? bytes[offset + index] : buffer.get(offset + index)) & 0xFF);
+	}
+
+	public CharSequence subSequence(final int start, final int end) {
+		return new MappedText(bytes, buffer, offset + start, end - start);
+	}
+
+	public String toString() {
+		if (bytes != null) {
+			return new String(bytes, offset, length, StandardCharsets.UTF_8);
+		}
+		byte[] copy = new byte[length];
+		for (int i = 0; i < length; i++) {
+			copy[i] = buffer.get(offset + i);
+		}
+		return new String(copy, StandardCharsets.UTF_8);
+	}
+}
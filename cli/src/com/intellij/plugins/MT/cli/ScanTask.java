@@ -0,0 +1,87 @@
+package com.intellij.plugins.MT.cli;
+
+import com.intellij.plugins.MT.parser.CommentCursor;
+import com.intellij.plugins.MT.parser.IncludePaths;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Scans and resolves the includes of a slice of the templates, splitting it in halves
+ * down to small batches so idle workers of the pool can steal the rest.
+ * Only INCLUDE paths inside HTML comments count, as in the editor.
+ */
+final class ScanTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+	private static final int BATCH_SIZE = 32;
+	private static final MTDirectiveScanner INCLUDE_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+
+	private final TemplateTree tree;
+	private final int from;
+	private final int to;
+
+	ScanTask(final TemplateTree tree, final int from, final int to) {
+		this.tree = tree;
+		this.from = from;
+		this.to = to;
+	}
+
+	protected void compute() {
+		if (to - from <= BATCH_SIZE) {
+			for (int i = from; i < to; i++) {
+				tree.setResult(i, scan(i));
+			}
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		invokeAll(new ScanTask(tree, from, middle), new ScanTask(tree, middle, to));
+	}
+
+	private ScannedTemplate scan(final int index) {
+		MappedText text;
+		try {
+			text = MappedText.read(tree.getFile(index));
+		} catch (IOException e) {
+			return new ScannedTemplate(e.getMessage());
+		}
+
+		int[] found = INCLUDE_SCANNER.findIncludePaths(text, 0, text.length());
+		int[] targets = new int[found.length / 2];
+		int targetCount = 0;
+		int includeCount = 0;
+		List<String> broken = null;
+		CommentCursor cursor = new CommentCursor(text);
+		for (int i = 0; i < found.length; i += 2) {
+			if (!cursor.isComment(found[i])) {
+				continue;
+			}
+			includeCount++;
+
+			String path = text.subSequence(found[i], found[i + 1]).toString();
+			String resolved = IncludePaths.resolve(tree.getDirectoryPath(index), path);
+			int target = resolved != null ? tree.indexOf(resolved) : -1;
+			if (target >= 0) {
+				targets[targetCount++] = target;
+			} else if (resolved == null || tree.isUnderRoot(resolved) || !Files.isRegularFile(Paths.get(resolved))) {
+				if (broken == null) {
+					broken = new ArrayList<String>();
+				}
+				broken.add(cursor.getLine() + ": cannot resolve included template '" + path + "'");
+			}
+		}
+		return new ScannedTemplate(includeCount, Arrays.copyOf(targets, targetCount),
+				broken != null ? broken : Collections.<String>emptyList());
+	}
+}
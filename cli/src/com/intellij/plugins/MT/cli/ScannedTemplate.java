@@ -0,0 +1,55 @@
+package com.intellij.plugins.MT.cli;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * What scanning one template found: the templates it includes and the includes which do not resolve.
+ */
+final class ScannedTemplate {
+	private final int includeCount;
+	private final int[] targets;
+	private final List<String> brokenIncludes;
+	private final String error;
+
+	ScannedTemplate(final int includeCount, final int[] targets, final List<String> brokenIncludes) {
+		this.includeCount = includeCount;
+		this.targets = targets;
+		this.brokenIncludes = brokenIncludes;
+		this.error = null;
+	}
+
+	ScannedTemplate(final String error) {
+		this.includeCount = 0;
+		this.targets = new int[0];
+		this.brokenIncludes = Collections.emptyList();
+		this.error = error;
+	}
+
+	int getIncludeCount() {
+		return includeCount;
+	}
+
+	/**
+	 * Numbers of the included templates under the root, in include order, repeats included.
+	 */
+	int[] getTargets() {
+		return targets;
+	}
+
+	/**
+	 * Messages for includes which do not resolve, each starting with its line number.
+	 */
+	List<String> getBrokenIncludes() {
+		return brokenIncludes;
+	}
+
+	String getError() {
+		return error;
+	}
+}
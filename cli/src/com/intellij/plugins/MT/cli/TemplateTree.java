@@ -0,0 +1,122 @@
+package com.intellij.plugins.MT.cli;
+
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Templates under a root, numbered in walk order, and what scanning them found.
+ * Paths are kept '/' separated, the way {@link com.intellij.plugins.MT.parser.IncludePaths} resolves them.
+ * The path index is filled before scanning and only read afterwards, so scan tasks share it without locking;
+ * each task writes the results of its own templates only.
+ */
+final class TemplateTree {
+	private final Path root;
+	private final Path[] files;
+	private final String[] directoryPaths;
+	private final Map<String, Integer> indexByPath;
+	private final ScannedTemplate[] results;
+
+	private TemplateTree(final Path root, final List<Path> files) {
+		this.root = root;
+		this.files = files.toArray(new Path[files.size()]);
+		this.directoryPaths = new String[this.files.length];
+		this.indexByPath = new HashMap<String, Integer>(this.files.length * 2);
+		this.results = new ScannedTemplate[this.files.length];
+		for (int i = 0; i < this.files.length; i++) {
+			directoryPaths[i] = toSystemIndependent(this.files[i].getParent());
+			indexByPath.put(toSystemIndependent(this.files[i]), i);
+		}
+	}
+
+	static TemplateTree walk(final Path root) throws IOException {
+		final List<Path> files = new ArrayList<Path>();
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes) {
+				if (attributes.isRegularFile() && hasTemplateExtension(file.getFileName().toString())) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+
+			public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+				System.err.println("Cannot read " + file + ": " + e.getMessage());
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return new TemplateTree(root, files);
+	}
+
+	int size() {
+		return files.length;
+	}
+
+	Path getFile(final int index) {
+		return files[index];
+	}
+
+	String getDirectoryPath(final int index) {
+		return directoryPaths[index];
+	}
+
+	/**
+	 * Returns the number of the template at the resolved path, or -1 if it is none of ours.
+	 */
+	int indexOf(final String path) {
+		Integer index = indexByPath.get(path);
+		return index != null ? index : -1;
+	}
+
+	boolean isUnderRoot(final String path) {
+		String rootPath = toSystemIndependent(root);
+		return path.startsWith(rootPath.endsWith("/") ? rootPath : rootPath + "/");
+	}
+
+	String getDisplayPath(final int index) {
+		return root.relativize(files[index]).toString().replace(File.separatorChar, '/');
+	}
+
+	ScannedTemplate getResult(final int index) {
+		return results[index];
+	}
+
+	void setResult(final int index, final ScannedTemplate result) {
+		results[index] = result;
+	}
+
+	int[][] getSuccessors() {
+		int[][] successors = new int[results.length][];
+		for (int i = 0; i < results.length; i++) {
+			successors[i] = results[i] != null ? results[i].getTargets() : new int[0];
+		}
+		return successors;
+	}
+
+	private static boolean hasTemplateExtension(final String name) {
+		for (String extension : MTDirectiveScanner.INCLUDE_EXTENSIONS) {
+			if (name.regionMatches(true, name.length() - extension.length(), extension, 0, extension.length())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String toSystemIndependent(final Path path) {
+		return path.toString().replace(File.separatorChar, '/');
+	}
+}
@@ -3,7 +3,7 @@ package com.intellij.plugins.MT;
 import com.intellij.openapi.components.ProjectComponent;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.project.Project;
-import com.intellij.plugins.MT.higlighter.FileEditorListenerImpl;
+import com.intellij.openapi.startup.StartupManager;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -11,11 +11,13 @@ import org.jetbrains.annotations.NotNull;
  * User: berkel
  * Date: 15.10.11
  * Time: 12:03
+ *
+ * Only hands {@link MTStartupActivity} to the startup manager. Everything else is a project service
+ * created on demand, so opening a project without templates costs next to nothing.
  */
 public class MTProjectComponent implements ProjectComponent {
 
 	private final Project project;
-	private FileEditorListenerImpl fileEditorListener;
 	private static final Logger LOG = Logger.getInstance(MTProjectComponent.class.getName());
 
 	public MTProjectComponent(Project project) {
@@ -23,7 +25,6 @@ public class MTProjectComponent implements ProjectComponent {
 	}
 
 	public void initComponent() {
-		this.fileEditorListener = new FileEditorListenerImpl(project);
 	}
 
 	public void disposeComponent() {
@@ -35,10 +36,9 @@ public class MTProjectComponent implements ProjectComponent {
 	}
 
 	public void projectOpened() {
-		fileEditorListener.projectOpened();
+		StartupManager.getInstance(project).registerPostStartupActivity(new MTStartupActivity(project));
 	}
 
 	public void projectClosed() {
-		fileEditorListener.projectClosed();
 	}
 }
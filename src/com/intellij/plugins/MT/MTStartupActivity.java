@@ -0,0 +1,104 @@
+package com.intellij.plugins.MT;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.fileEditor.FileEditorManagerAdapter;
+import com.intellij.openapi.fileEditor.FileEditorManagerListener;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.higlighter.FileEditorListenerImpl;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:58
+ *
+ * Starts the editor side of the plugin once a template is open. If none is open after startup,
+ * an editor manager subscription waits for the first one, and a document listener for an open file
+ * with a template extension whose first bytes get a directive; both go away then.
+ * The time this takes is logged, including the services created when highlighting starts right away.
+ */
+public class MTStartupActivity implements Runnable {
+	private static final Logger LOG = Logger.getInstance(MTStartupActivity.class.getName());
+
+	private final Project project;
+	// EDT only
+	private boolean started = false;
+
+	public MTStartupActivity(@NotNull final Project project) {
+		this.project = project;
+	}
+
+	public void run() {
+		long start = System.nanoTime();
+		boolean templateOpen = false;
+		for (VirtualFile file : FileEditorManager.getInstance(project).getOpenFiles()) {
+			if (MTFileSniffer.isTemplate(file)) {
+				templateOpen = true;
+				break;
+			}
+		}
+
+		if (templateOpen) {
+			FileEditorListenerImpl.getInstance(project).start();
+		} else {
+			waitForTemplate();
+		}
+
+		long elapsedMicros = (System.nanoTime() - start) / 1000;
+		LOG.info("MT startup took " + elapsedMicros + " us in opening "
+				+ project.getName() + (templateOpen ? ", highlighting started" : ", waiting for the first template"));
+	}
+
+	private void waitForTemplate() {
+		final Disposable waiting = new Disposable() {
+			public void dispose() {
+			}
+		};
+		Disposer.register(project, waiting);
+
+		project.getMessageBus().connect(waiting).subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, new FileEditorManagerAdapter() {
+			public void fileOpened(final FileEditorManager source, final VirtualFile file) {
+				if (MTFileSniffer.isTemplate(file)) {
+					startHighlighting(waiting);
+				}
+			}
+		});
+		EditorFactory.getInstance().getEventMulticaster().addDocumentListener(new DocumentAdapter() {
+			public void documentChanged(final DocumentEvent event) {
+				if (event.getOffset() >= MTFileSniffer.SNIFF_LENGTH) {
+					return;
+				}
+				VirtualFile file = FileDocumentManager.getInstance().getFile(event.getDocument());
+				if (file != null && MTFileSniffer.hasTemplateExtension(file) && FileEditorManager.getInstance(project).isFileOpen(file)
+						&& MTFileSniffer.isTemplate(file)) {
+					// not while the document is dispatching its change
+					ApplicationManager.getApplication().invokeLater(new Runnable() {
+						public void run() {
+							startHighlighting(waiting);
+						}
+					});
+				}
+			}
+		}, waiting);
+	}
+
+	private void startHighlighting(@NotNull final Disposable waiting) {
+		if (started || project.isDisposed()) {
+			return;
+		}
+		started = true;
+		Disposer.dispose(waiting);
+		FileEditorListenerImpl.getInstance(project).start();
+	}
+}
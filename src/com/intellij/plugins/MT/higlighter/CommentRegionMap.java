@@ -0,0 +1,132 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.HighlighterIterator;
+import com.intellij.plugins.MT.parser.MTTokenTypes;
+import com.intellij.plugins.MT.stats.MTStats;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.xml.XmlTokenType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 17:30
+ *
+ * Answers "is this offset inside an HTML comment" from the lexer tokens the editor highlighter already keeps.
+ * The editor highlighter relexes only the damaged part of the document after an edit and finds the token
+ * at an offset with a binary search, so neither a PSI tree nor a full relex is needed. Any editor of the document will do,
+ * without one the PSI is asked. EDT only.
+ */
+final class CommentRegionMap {
+	private static final String COMMENT_START = "<!--";
+	private static final String COMMENT_END = "-->";
+
+	private final PsiFile psiFile;
+	// earliest offset where an edit may have opened or closed a comment, -1 if none since last check
+	private int changedFrom = -1;
+	// whether the change under way cuts into a comment start or end
+	private boolean boundaryCut = false;
+
+	CommentRegionMap(final PsiFile psiFile) {
+		this.psiFile = psiFile;
+	}
+
+	public boolean isComment(@Nullable final Editor editor, final int offset) {
+		if (!(editor instanceof EditorEx)) {
+			return EditorIncludeLinkParser.isComment(psiFile, offset);
+		}
+
+		long start = MTStats.start();
+		EditorHighlighter highlighter = ((EditorEx) editor).getHighlighter();
+		HighlighterIterator iterator = highlighter.createIterator(offset);
+		boolean comment = !iterator.atEnd() && isCommentToken(iterator.getTokenType());
+		MTStats.stop(MTStats.Stage.COMMENT, start);
+		return comment;
+	}
+
+	public static boolean isCommentToken(final IElementType tokenType) {
+		// templates have comment bodies split into MT tokens by MTEditorHighlighterProvider
+		return tokenType == XmlTokenType.XML_COMMENT_CHARACTERS || MTTokenTypes.COMMENT_BODY.contains(tokenType);
+	}
+
+	/**
+	 * Notes whether the replaced text cuts into a comment start or end, which the change then breaks.
+	 */
+	public void beforeDocumentChange(@Nullable final Editor editor, @NotNull final DocumentEvent event) {
+		boundaryCut = cutsBoundary(editor, event.getDocument().getCharsSequence(), event.getOffset(), event.getOffset() + event.getOldLength());
+	}
+
+	/**
+	 * Remembers edits which change comment boundaries after them, i.e. ones breaking a comment start or end
+	 * or making a new one. Whether characters make one is up to the lexer: "-->" outside a comment or "<!--"
+	 * inside one is plain text.
+	 */
+	public void documentChanged(@Nullable final Editor editor, @NotNull final DocumentEvent event) {
+		if (changedFrom >= 0) {
+			changedFrom = DirtyRegionSet.shiftStartOffset(changedFrom, event.getOffset(), event.getOldLength(), event.getNewLength());
+		}
+		if (boundaryCut || cutsBoundary(editor, event.getDocument().getCharsSequence(), event.getOffset(), event.getOffset() + event.getNewLength())) {
+			changedFrom = changedFrom < 0 ? event.getOffset() : Math.min(changedFrom, event.getOffset());
+		}
+		boundaryCut = false;
+	}
+
+	/**
+	 * Returns the earliest offset after which comment boundaries may have moved, or -1, and forgets it.
+	 */
+	public int takeChangedFrom() {
+		int result = changedFrom;
+		changedFrom = -1;
+		return result;
+	}
+
+	/**
+	 * Returns true if a comment start or end token has characters within [start, end), or, for an empty
+	 * range, on both sides of <code>start</code>. Without an editor the text is matched, which cannot tell
+	 * delimiters from plain text but still leaves out edits next to one.
+	 */
+	private static boolean cutsBoundary(@Nullable final Editor editor, @NotNull final CharSequence text, final int start, final int end) {
+		if (editor instanceof EditorEx) {
+			HighlighterIterator iterator = ((EditorEx) editor).getHighlighter().createIterator(start);
+			for (; !iterator.atEnd() && iterator.getStart() < Math.max(end, start + 1); iterator.advance()) {
+				IElementType tokenType = iterator.getTokenType();
+				if ((tokenType == XmlTokenType.XML_COMMENT_START || tokenType == XmlTokenType.XML_COMMENT_END)
+						&& cuts(iterator.getStart(), iterator.getEnd(), start, end)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		for (int i = Math.max(0, start - COMMENT_START.length() + 1); i < Math.max(end, start + 1) && i < text.length(); i++) {
+			if (startsWith(text, i, COMMENT_START) && cuts(i, i + COMMENT_START.length(), start, end)
+					|| startsWith(text, i, COMMENT_END) && cuts(i, i + COMMENT_END.length(), start, end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean cuts(final int tokenStart, final int tokenEnd, final int start, final int end) {
+		return start == end ? tokenStart < start && tokenEnd > start : tokenStart < end && tokenEnd > start;
+	}
+
+	private static boolean startsWith(@NotNull final CharSequence text, final int offset, @NotNull final String prefix) {
+		if (offset + prefix.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++) {
+			if (text.charAt(offset + i) != prefix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
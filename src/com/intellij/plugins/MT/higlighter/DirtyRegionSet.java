@@ -0,0 +1,116 @@
+package com.intellij.plugins.MT.higlighter;
+
+import java.util.Arrays;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 16:02
+ *
+ * Sorted set of disjoint [start, end] document intervals waiting for a reparse.
+ * Intervals are merged as they are added, so a burst of edits on the same lines stays a single interval,
+ * while edits far apart (multiple carets) do not drag everything between them into the reparse.
+ */
+final class DirtyRegionSet {
+	private int[] starts = new int[4];
+	private int[] ends = new int[4];
+	private int size = 0;
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public int getStart(final int index) {
+		return starts[index];
+	}
+
+	public int getEnd(final int index) {
+		return ends[index];
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public void add(final int start, final int end) {
+		int index = 0;
+		while (index < size && ends[index] < start - 1) {
+			index++;
+		}
+
+		int last = index;
+		int mergedStart = start;
+		int mergedEnd = end;
+		while (last < size && starts[last] <= end + 1) {
+			mergedStart = Math.min(mergedStart, starts[last]);
+			mergedEnd = Math.max(mergedEnd, ends[last]);
+			last++;
+		}
+
+		if (last == index) {
+			if (size == starts.length) {
+				starts = Arrays.copyOf(starts, size * 2);
+				ends = Arrays.copyOf(ends, size * 2);
+			}
+			System.arraycopy(starts, index, starts, index + 1, size - index);
+			System.arraycopy(ends, index, ends, index + 1, size - index);
+			size++;
+		} else if (last > index + 1) {
+			System.arraycopy(starts, last, starts, index + 1, size - last);
+			System.arraycopy(ends, last, ends, index + 1, size - last);
+			size -= last - index - 1;
+		}
+		starts[index] = mergedStart;
+		ends[index] = mergedEnd;
+	}
+
+	/**
+	 * Moves the intervals the way a replacement of <code>oldLength</code> characters at <code>offset</code>
+	 * by <code>newLength</code> characters moves the text.
+	 */
+	public void shift(final int offset, final int oldLength, final int newLength) {
+		if (size == 0) {
+			return;
+		}
+
+		// both mappings keep the order, intervals may only run into each other
+		int merged = 0;
+		for (int i = 0; i < size; i++) {
+			int start = shiftStartOffset(starts[i], offset, oldLength, newLength);
+			int end = shiftEndOffset(ends[i], offset, oldLength, newLength);
+			if (merged > 0 && start <= ends[merged - 1] + 1) {
+				ends[merged - 1] = Math.max(ends[merged - 1], end);
+			} else {
+				starts[merged] = start;
+				ends[merged] = end;
+				merged++;
+			}
+		}
+		size = merged;
+	}
+
+	public static int shiftStartOffset(final int o, final int offset, final int oldLength, final int newLength) {
+		if (o <= offset) {
+			return o;
+		}
+		if (o >= offset + oldLength) {
+			return o + newLength - oldLength;
+		}
+		return offset;
+	}
+
+	public static int shiftEndOffset(final int o, final int offset, final int oldLength, final int newLength) {
+		if (o < offset) {
+			return o;
+		}
+		if (o >= offset + oldLength) {
+			return o + newLength - oldLength;
+		}
+		return offset + newLength;
+	}
+}
@@ -1,24 +1,23 @@
 package com.intellij.plugins.MT.higlighter;
 
-import com.intellij.openapi.actionSystem.DataContext;
-import com.intellij.openapi.actionSystem.LangDataKeys;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.plugins.MT.stats.MTStats;
 import com.intellij.plugins.MT.util.FileUtil;
+import com.intellij.plugins.MT.util.IncludePathCache;
 import com.intellij.psi.PsiElement;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.xml.XmlToken;
 import com.intellij.psi.xml.XmlTokenType;
 import org.jetbrains.annotations.NotNull;
 
-import java.awt.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Created by IntelliJ IDEA.
@@ -27,7 +26,7 @@ import java.util.regex.Pattern;
  * Time: 18:46
  */
 public final class EditorIncludeLinkParser {
-	private static final Pattern INCLUDE_LINK_SEARCH_PATTERN = Pattern.compile("\\b(INCLUDE\\s+)([^\\s]+\\.(?:html|tpl))\\b");
+	private static final MTDirectiveScanner INCLUDE_LINK_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
 	private final Project project;
 	private static final Logger LOG = Logger.getInstance(EditorIncludeLinkParser.class.getName());
 
@@ -36,26 +35,18 @@ public final class EditorIncludeLinkParser {
 	}
 
 	public List<IncludeLinkTextRange> getIncludeLinkTextRange(final PsiFile psiFile, final Editor editor, int startOffset, int endOffset) {
-		if (endOffset <= startOffset) {
-			return Collections.emptyList();
-		}
-
-		startOffset = inBounds(editor, startOffset);
-		endOffset = inBounds(editor, endOffset);
-		CharSequence text;
+		return getIncludeLinkTextRange(psiFile, editor.getDocument(), startOffset, endOffset);
+	}
 
-		try {
-			text = editor.getDocument().getCharsSequence().subSequence(startOffset, endOffset);
-		} catch (IndexOutOfBoundsException e) {
+	public List<IncludeLinkTextRange> getIncludeLinkTextRange(final PsiFile psiFile, final Document document, int startOffset, int endOffset) {
+		if (endOffset <= startOffset) {
 			return Collections.emptyList();
 		}
 
-		List<IncludeLinkTextRange> newRanges = getNewRanges(psiFile, text);
-		for (IncludeLinkTextRange range : newRanges) {
-			range.shift(startOffset);
-		}
+		startOffset = inBounds(document, startOffset);
+		endOffset = inBounds(document, endOffset);
 
-		return newRanges;
+		return getNewRanges(psiFile, document.getCharsSequence(), startOffset, endOffset);
 	}
 
 	public static boolean isInstanceOfPsiDocToken(Object obj) {
@@ -71,6 +62,7 @@ public final class EditorIncludeLinkParser {
 	}
 
 	public static boolean isComment(final PsiFile psiFile, final int startOffset) {
+		long start = MTStats.start();
 		Boolean result = false;
 		if (psiFile != null) {
 			PsiElement element = psiFile.findElementAt(startOffset);
@@ -78,74 +70,43 @@ public final class EditorIncludeLinkParser {
 				result = element instanceof XmlToken && ((XmlToken) element).getTokenType() == XmlTokenType.XML_COMMENT_CHARACTERS;
 			}
 		}
+		MTStats.stop(MTStats.Stage.COMMENT_PSI, start);
 		return result;
 	}
 
 	public static boolean isFileValid(final PsiFile psiFile, final String filePath) {
-		VirtualFile file = FileUtil.findVirtualFileByPsiFile(psiFile, filePath);
+		VirtualFile file = resolveIncludedFile(psiFile, filePath);
 		return file != null && file.isValid();
 	}
 
-	private List<IncludeLinkTextRange> getNewRanges(final PsiFile psiFile, final CharSequence text) {
-		List<IncludeLinkTextRange> ranges = new ArrayList<IncludeLinkTextRange>();
-		Matcher matcher = INCLUDE_LINK_SEARCH_PATTERN.matcher(text);
-		while (matcher.find()) {
-			String filePath = matcher.group(2);
-			if (isFileValid(psiFile, filePath)) {
-				IncludeLinkTextRange range = new IncludeLinkTextRange(project, psiFile, matcher.start() + matcher.group(1).length(), matcher.end(), filePath, true);
-				ranges.add(range);
-			}
-		}
-		return ranges;
-	}
-
-
-	public IncludeLinkTextRange getIncludeLinkTextRange(final Editor editor, final PsiFile file, final Point point) {
-		if (editor == null || point == null) {
+	public static VirtualFile resolveIncludedFile(final PsiFile psiFile, final String filePath) {
+		if (psiFile == null) {
 			return null;
 		}
-
-		int offset = editor.logicalPositionToOffset(editor.xyToLogicalPosition(point));
-		return getIncludeLinkTextRange(editor, file, offset);
+		long start = MTStats.start();
+		IncludePathCache cache = IncludePathCache.getInstance(psiFile.getProject());
+		VirtualFile file = cache != null ? cache.resolve(psiFile, filePath) : FileUtil.findVirtualFileByPsiFile(psiFile, filePath);
+		MTStats.stop(MTStats.Stage.RESOLVE, start);
+		return file;
 	}
 
-	private IncludeLinkTextRange getIncludeLinkTextRange(final Editor editor, final PsiFile file, final int offset) {
-		if (file == null) {
-			return null;
-		}
-
-		int length = editor.getDocument().getTextLength();
-		if (length > 0 && offset < length) {
-			int startLineOffset = IncludeLinkHighlighter.getStartLineOffset(editor, offset);
-			int endLineOffset = IncludeLinkHighlighter.getEndLineOffset(editor, offset);
-
-			CharSequence lineText = editor.getDocument().getCharsSequence().subSequence(startLineOffset, endLineOffset);
-			List<IncludeLinkTextRange> newRanges = getNewRanges(file, lineText);
-			if (!newRanges.isEmpty()) {
-				for (IncludeLinkTextRange range : newRanges) {
-					if (startLineOffset + range.getStartOffset() <= offset && startLineOffset + range.getEndOffset() >= offset) {
-						range.setActive(isComment(file, offset));
-						return range;
-					}
-				}
-			}
+	private List<IncludeLinkTextRange> getNewRanges(final PsiFile psiFile, final CharSequence text, final int startOffset, final int endOffset) {
+		List<IncludeLinkTextRange> ranges = new ArrayList<IncludeLinkTextRange>();
+		long start = MTStats.start();
+		int[] paths = INCLUDE_LINK_SCANNER.findIncludePaths(text, startOffset, endOffset);
+		MTStats.stop(MTStats.Stage.SCAN, start);
+		MTStats.count(MTStats.Counter.RANGES_PARSED, paths.length / 2);
+		for (int i = 0; i < paths.length; i += 2) {
+			String filePath = text.subSequence(paths[i], paths[i + 1]).toString();
+			VirtualFile virtualFile = resolveIncludedFile(psiFile, filePath);
+			ranges.add(new IncludeLinkTextRange(psiFile, paths[i], paths[i + 1], filePath, true, virtualFile != null));
 		}
-
-		return null;
+		return ranges;
 	}
 
-	private static int inBounds(@NotNull Editor editor, int offset) {
-		int maxValue = editor.getDocument().getTextLength();
+	private static int inBounds(@NotNull Document document, int offset) {
+		int maxValue = document.getTextLength();
 		return Math.max(Math.min(offset, Math.max(0, maxValue)), Math.min(0, maxValue));
 
 	}
-
-	public IncludeLinkTextRange getURLTextRange(DataContext context) {
-		PsiFile file = LangDataKeys.PSI_FILE.getData(context);
-		Editor editor = LangDataKeys.EDITOR.getData(context);
-		if (editor == null || editor.isDisposed()) {
-			return null;
-		}
-		return getIncludeLinkTextRange(editor, file, editor.getCaretModel().getOffset());
-	}
 }
@@ -1,159 +1,221 @@
 package com.intellij.plugins.MT.higlighter;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
-import com.intellij.openapi.fileEditor.FileEditorManager;
-import com.intellij.openapi.fileEditor.FileEditorManagerEvent;
-import com.intellij.openapi.fileEditor.FileEditorManagerListener;
-import com.intellij.openapi.progress.ProgressIndicator;
-import com.intellij.openapi.progress.ProgressManager;
-import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.editor.EditorFactory;
+import com.intellij.openapi.editor.event.DocumentAdapter;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.index.TemplateChangeBatcher;
+import com.intellij.plugins.MT.stats.MTStats;
+import com.intellij.plugins.MT.util.MTFileSniffer;
 import com.intellij.psi.PsiFile;
 import com.intellij.psi.PsiManager;
 import com.intellij.util.containers.HashMap;
-import com.intellij.util.messages.MessageBusConnection;
 import org.jetbrains.annotations.NotNull;
 
-import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by IntelliJ IDEA.
  * User: berkel
  * Date: 15.10.11
  * Time: 18:46
+ *
+ * Attaches every editor of a project file to the highlighter of its document. Split panes and
+ * duplicated tabs share the highlighter, so a document is parsed once however many editors show it.
+ * Files which are not MT templates get no highlighter at all; the ones with a template extension are sniffed again
+ * when their first bytes are edited, and get the highlighter and the MT editor layer once they hold a directive.
+ * Files appearing, going or moving make only the includes pointing at them resolve again, a batch of
+ * changes from {@link TemplateChangeBatcher} at a time.
+ * A project service, {@link #start() started} when the first template is opened.
  */
-public class FileEditorListenerImpl implements FileEditorManagerListener {
-	private final Map<VirtualFile, IncludeLinkHighlighter> linkHighlighters = new HashMap<VirtualFile, IncludeLinkHighlighter>();
+public class FileEditorListenerImpl implements EditorFactoryListener, Disposable {
+	private final Map<Document, IncludeLinkHighlighter> linkHighlighters = new HashMap<Document, IncludeLinkHighlighter>();
+	private final IncludeTargetMap targetMap = new IncludeTargetMap();
+	// open documents with a template extension but no directive, EDT only
+	private final Set<Document> sniffedOut = new HashSet<Document>();
+	private final DocumentListener sniffListener = new DocumentAdapter() {
+		public void documentChanged(final DocumentEvent event) {
+			final Document document = event.getDocument();
+			if (event.getOffset() >= MTFileSniffer.SNIFF_LENGTH || !sniffedOut.contains(document)) {
+				return;
+			}
+			VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+			if (file == null || !MTFileSniffer.isTemplate(file)) {
+				return;
+			}
+			sniffedOut.remove(document);
+			// not while the document is dispatching its change
+			ApplicationManager.getApplication().invokeLater(new Runnable() {
+				public void run() {
+					if (!project.isDisposed() && isRegistered) {
+						for (Editor editor : EditorFactory.getInstance().getEditors(document, project)) {
+							addEditor(editor);
+						}
+					}
+				}
+			});
+		}
+	};
+	private final TemplateChangeBatcher.Listener changeListener = new TemplateChangeBatcher.Listener() {
+		public void templatesChanged(@NotNull final Set<String> changedPaths, @NotNull final Set<VirtualFile> changedTemplates, final boolean directoriesChanged) {
+			revalidate(changedPaths);
+		}
+	};
 	private Project project;
 	private boolean isRegistered;
 	private EditorIncludeLinkParser editorIncludeLinkParser;
 	private static final Logger LOG = Logger.getInstance(FileEditorListenerImpl.class.getName());
-	private MessageBusConnection messageBusConnection;
 
 	public FileEditorListenerImpl(@NotNull Project project) {
 		this.project = project;
 		this.editorIncludeLinkParser = new EditorIncludeLinkParser(project);
 	}
 
-	public void selectionChanged(final FileEditorManagerEvent event) {
-		final FileEditorManager editorManager = event.getManager();
-		if (project != editorManager.getProject()) {
-			assert false : this;
-			return;
-		}
+	public static FileEditorListenerImpl getInstance(@NotNull final Project project) {
+		return ServiceManager.getService(project, FileEditorListenerImpl.class);
+	}
 
-		VirtualFile newFile = event.getNewFile();
-		VirtualFile oldFile = event.getOldFile();
+	public void editorCreated(@NotNull final EditorFactoryEvent event) {
+		addEditor(event.getEditor());
+	}
 
-		if (oldFile != null && newFile == null) {
-			removeHighlighter(oldFile);
-		} else if (newFile != null && !linkHighlighters.containsKey(newFile)) {
-			PsiFile psiFile = PsiManager.getInstance(project).findFile(newFile);
-			if (psiFile != null) {
-				Editor editor = editorManager.getSelectedTextEditor();
-				if (editor != null) {
-					addHighlighter(newFile, psiFile, editor);
-				}
-			}
-		}
+	public void editorReleased(@NotNull final EditorFactoryEvent event) {
+		removeEditor(event.getEditor());
 	}
 
-	public void projectClosed() {
+	public void dispose() {
 		deactivate();
+		removeAllLinkHighlighers();
 	}
 
-	public void projectOpened() {
-		activate();
-		Task.Backgroundable task = new ScanningIncludeLinksTask(project, this);
-		ProgressManager.getInstance().run(task);
+	/**
+	 * Attaches highlighters to the editors open now and to ones opened later. EDT only.
+	 */
+	public void start() {
+		if (!isRegistered) {
+			activate();
+			scanOpenEditors();
+		}
 	}
 
 	public void deactivate() {
 		if (isRegistered) {
-			if (!project.isDisposed()) {
-				messageBusConnection.disconnect();
-			}
+			EditorFactory.getInstance().removeEditorFactoryListener(this);
+			EditorFactory.getInstance().getEventMulticaster().removeDocumentListener(sniffListener);
+			TemplateChangeBatcher.getInstance(project).removeListener(changeListener);
 			isRegistered = false;
 		}
 	}
 
 	public void activate() {
 		if (!isRegistered) {
-			messageBusConnection = project.getMessageBus().connect();
-			messageBusConnection.subscribe(FileEditorManagerListener.FILE_EDITOR_MANAGER, this);
+			EditorFactory.getInstance().addEditorFactoryListener(this);
+			EditorFactory.getInstance().getEventMulticaster().addDocumentListener(sniffListener);
+			TemplateChangeBatcher.getInstance(project).addListener(changeListener);
 			isRegistered = true;
 		}
 	}
 
-	private void addHighlighter(final VirtualFile newFile, final PsiFile psiFile, final Editor editor) {
-		IncludeLinkHighlighter highlighter = new IncludeLinkHighlighter(project, newFile, psiFile, editor, editorIncludeLinkParser);
-		highlighter.startListeninig();
-		linkHighlighters.put(newFile, highlighter);
-		highlighter.reparseAll();
-		highlighter.checkComments();
-	}
-
-	private void removeHighlighter(final VirtualFile oldFile) {
-		IncludeLinkHighlighter hl = linkHighlighters.get(oldFile);
-		if (hl != null) {
-			hl.stopListening();
-			hl.removeAllRanges();
-			linkHighlighters.remove(oldFile);
+	private void revalidate(@NotNull final Set<String> changedPaths) {
+		if (targetMap.isEmpty()) {
+			return;
+		}
+		Map<IncludeLinkHighlighter, Set<String>> affected = new HashMap<IncludeLinkHighlighter, Set<String>>();
+		for (String path : changedPaths) {
+			targetMap.collect(path, affected);
+		}
+		for (Map.Entry<IncludeLinkHighlighter, Set<String>> entry : affected.entrySet()) {
+			entry.getKey().revalidate(entry.getValue());
 		}
 	}
 
-	public void scanOpenEditors() {
-		final FileEditorManager editorManager = FileEditorManager.getInstance(project);
-		if (editorManager == null) {
+	private void addEditor(final Editor editor) {
+		if (editor.getProject() != project) {
 			return;
 		}
-		for (VirtualFile openFile : editorManager.getSelectedFiles()) {
-			if (!linkHighlighters.containsKey(openFile)) {
-				PsiFile psiFile = PsiManager.getInstance(project).findFile(openFile);
-				if (psiFile != null) {
-					Editor editor = editorManager.getSelectedTextEditor();
-					if (editor != null) {
-						addHighlighter(openFile, psiFile, editor);
-					}
-				}
-			} else {
-				linkHighlighters.get(openFile).reparseAll();
-				linkHighlighters.get(openFile).checkComments();
+
+		Document document = editor.getDocument();
+		VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+		IncludeLinkHighlighter highlighter = linkHighlighters.get(document);
+		if (highlighter != null) {
+			if (file != null) {
+				MTEditorHighlighterProvider.ensureTemplateHighlighter(project, editor, file);
 			}
+			highlighter.attachEditor(editor);
+			return;
 		}
-	}
 
-	public void removeAllLinkHighlighers() {
-		for (VirtualFile vf : linkHighlighters.keySet()) {
-			removeHighlighter(vf);
+		if (file == null) {
+			return;
+		}
+		if (!MTFileSniffer.isTemplate(file)) {
+			if (MTFileSniffer.hasTemplateExtension(file)) {
+				sniffedOut.add(document);
+			}
+			return;
+		}
+		PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+		if (psiFile != null) {
+			MTEditorHighlighterProvider.ensureTemplateHighlighter(project, editor, file);
+			highlighter = new IncludeLinkHighlighter(project, file, psiFile, document, editorIncludeLinkParser, targetMap);
+			highlighter.attachEditor(editor);
+			highlighter.startListeninig();
+			linkHighlighters.put(document, highlighter);
+			MTStats.count(MTStats.Counter.LINK_HIGHLIGHTERS, 1);
+			highlighter.reparseAll();
 		}
-		linkHighlighters.clear();
 	}
 
-	private class ScanningIncludeLinksTask extends Task.Backgroundable {
-		private final FileEditorListenerImpl fileEditor;
-
-		public ScanningIncludeLinksTask(@org.jetbrains.annotations.Nullable Project project, final FileEditorListenerImpl fileEditor) {
-			super(project, "Scanning files for include", false);
-			this.fileEditor = fileEditor;
+	private void removeEditor(final Editor editor) {
+		Document document = editor.getDocument();
+		IncludeLinkHighlighter hl = linkHighlighters.get(document);
+		if (hl == null && sniffedOut.contains(document) && !isShownElsewhere(document, editor)) {
+			sniffedOut.remove(document);
 		}
+		if (hl != null && !hl.detachEditor(editor)) {
+			hl.stopListening();
+			hl.removeAllRanges();
+			linkHighlighters.remove(document);
+			MTStats.count(MTStats.Counter.LINK_HIGHLIGHTERS, -1);
+		}
+	}
 
-		public void run(@NotNull final ProgressIndicator progressIndicator) {
-			SwingUtilities.invokeLater(new Runnable() {
-				public void run() {
-					fileEditor.scanOpenEditors();
-				}
-			});
+	private boolean isShownElsewhere(@NotNull final Document document, @NotNull final Editor editor) {
+		for (Editor other : EditorFactory.getInstance().getEditors(document, project)) {
+			if (other != editor) {
+				return true;
+			}
 		}
+		return false;
 	}
 
-	public void fileOpened(final FileEditorManager fileEditorManager, final VirtualFile virtualFile) {
+	public void scanOpenEditors() {
+		for (Editor editor : EditorFactory.getInstance().getAllEditors()) {
+			addEditor(editor);
+		}
 	}
 
-	public void fileClosed(final FileEditorManager fileEditorManager, final VirtualFile virtualFile) {
-		removeHighlighter(virtualFile);
+	public void removeAllLinkHighlighers() {
+		for (IncludeLinkHighlighter hl : new ArrayList<IncludeLinkHighlighter>(linkHighlighters.values())) {
+			hl.stopListening();
+			hl.removeAllRanges();
+		}
+		MTStats.count(MTStats.Counter.LINK_HIGHLIGHTERS, -linkHighlighters.size());
+		linkHighlighters.clear();
+		sniffedOut.clear();
 	}
 }
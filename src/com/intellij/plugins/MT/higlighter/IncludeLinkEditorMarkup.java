@@ -0,0 +1,127 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.editor.markup.HighlighterLayer;
+import com.intellij.openapi.editor.markup.HighlighterTargetArea;
+import com.intellij.openapi.editor.markup.MarkupModel;
+import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.plugins.MT.stats.MTStats;
+import gnu.trove.TIntObjectHashMap;
+import gnu.trove.TObjectProcedure;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:00
+ *
+ * Markup of the include ranges of a document in one of its editors. Holds no ranges of its own,
+ * the document's {@link IncludeLinkHighlighter} tells it what to add and remove. EDT only.
+ */
+final class IncludeLinkEditorMarkup {
+	private final Editor editor;
+	// ranges are views which change offsets, so markup is keyed by the id the range store gives them
+	private final TIntObjectHashMap<RangeHighlighter> rangeHighlighters = new TIntObjectHashMap<RangeHighlighter>();
+	private final TIntObjectHashMap<RangeHighlighter> cycleHighlighters = new TIntObjectHashMap<RangeHighlighter>();
+	private VisibleAreaListener visibleAreaListener = null;
+
+	IncludeLinkEditorMarkup(@NotNull final Editor editor) {
+		this.editor = editor;
+	}
+
+	public Editor getEditor() {
+		return editor;
+	}
+
+	public void listenOnVisibleArea(@NotNull final VisibleAreaListener listener) {
+		visibleAreaListener = listener;
+		editor.getScrollingModel().addVisibleAreaListener(listener);
+	}
+
+	public void stopListening() {
+		if (visibleAreaListener != null) {
+			editor.getScrollingModel().removeVisibleAreaListener(visibleAreaListener);
+			visibleAreaListener = null;
+		}
+	}
+
+	public boolean isHighlighted(@NotNull final IncludeLinkTextRange range) {
+		return rangeHighlighters.containsKey(range.getId());
+	}
+
+	public boolean isCycleMarked(@NotNull final IncludeLinkTextRange range) {
+		return cycleHighlighters.containsKey(range.getId());
+	}
+
+	public void add(@NotNull final IncludeLinkTextRange range) {
+		if (!rangeHighlighters.containsKey(range.getId())) {
+			RangeHighlighter rangeHighlighter = editor.getMarkupModel().addRangeHighlighter(range.getStartOffset(), range.getEndOffset(), HighlighterLayer.WARNING - 1, IncludeLinkTextRange.INCLUDE_ATTRIBUTES, HighlighterTargetArea.EXACT_RANGE);
+			rangeHighlighters.put(range.getId(), rangeHighlighter);
+			MTStats.count(MTStats.Counter.MARKUP_ADDED, 1);
+		}
+	}
+
+	public void addCycleMark(@NotNull final IncludeLinkTextRange range, @NotNull final String tooltip) {
+		if (!cycleHighlighters.containsKey(range.getId())) {
+			RangeHighlighter cycleHighlighter = editor.getMarkupModel().addRangeHighlighter(range.getStartOffset(), range.getEndOffset(), HighlighterLayer.ERROR, IncludeLinkTextRange.CYCLE_ATTRIBUTES, HighlighterTargetArea.EXACT_RANGE);
+			cycleHighlighter.setErrorStripeMarkColor(IncludeLinkTextRange.CYCLE_ATTRIBUTES.getEffectColor());
+			cycleHighlighter.setErrorStripeTooltip(tooltip);
+			cycleHighlighters.put(range.getId(), cycleHighlighter);
+		}
+	}
+
+	public void removeCycleMark(@NotNull final IncludeLinkTextRange range) {
+		RangeHighlighter cycleHighlighter = cycleHighlighters.remove(range.getId());
+		if (cycleHighlighter != null) {
+			editor.getMarkupModel().removeHighlighter(cycleHighlighter);
+		}
+	}
+
+	public void remove(@NotNull final IncludeLinkTextRange range) {
+		RangeHighlighter rangeHighlighter = rangeHighlighters.remove(range.getId());
+		if (rangeHighlighter != null) {
+			editor.getMarkupModel().removeHighlighter(rangeHighlighter);
+			MTStats.count(MTStats.Counter.MARKUP_REMOVED, 1);
+		}
+		removeCycleMark(range);
+	}
+
+	public void removeAll() {
+		final MarkupModel markupModel = editor.getMarkupModel();
+		TObjectProcedure<RangeHighlighter> removeHighlighter = new TObjectProcedure<RangeHighlighter>() {
+			public boolean execute(final RangeHighlighter rangeHighlighter) {
+				markupModel.removeHighlighter(rangeHighlighter);
+				return true;
+			}
+		};
+		rangeHighlighters.forEachValue(removeHighlighter);
+		MTStats.count(MTStats.Counter.MARKUP_REMOVED, rangeHighlighters.size());
+		rangeHighlighters.clear();
+		cycleHighlighters.forEachValue(removeHighlighter);
+		cycleHighlighters.clear();
+	}
+
+	/**
+	 * Returns {start, end} offsets of the whole lines visible in the editor plus <code>marginLines</code>
+	 * on both sides, or null for an empty document.
+	 */
+	public int[] getVisibleWindow(final int marginLines) {
+		Document document = editor.getDocument();
+		int lineCount = document.getLineCount();
+		if (lineCount == 0) {
+			return null;
+		}
+
+		Rectangle area = editor.getScrollingModel().getVisibleArea();
+		int firstLine = editor.xyToLogicalPosition(new Point(0, area.y)).line - marginLines;
+		int lastLine = editor.xyToLogicalPosition(new Point(0, area.y + area.height)).line + marginLines;
+		firstLine = Math.max(0, Math.min(firstLine, lineCount - 1));
+		lastLine = Math.max(firstLine, Math.min(lastLine, lineCount - 1));
+		return new int[]{document.getLineStartOffset(firstLine), document.getLineEndOffset(lastLine)};
+	}
+}
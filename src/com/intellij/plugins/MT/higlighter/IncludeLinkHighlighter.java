@@ -1,18 +1,30 @@
 package com.intellij.plugins.MT.higlighter;
 
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.editor.Document;
 import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.event.DocumentAdapter;
 import com.intellij.openapi.editor.event.DocumentEvent;
-import com.intellij.openapi.editor.markup.MarkupModel;
-import com.intellij.openapi.editor.markup.RangeHighlighter;
+import com.intellij.openapi.editor.event.VisibleAreaEvent;
+import com.intellij.openapi.editor.event.VisibleAreaListener;
+import com.intellij.openapi.progress.EmptyProgressIndicator;
+import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.index.IncludeCycleDetector;
+import com.intellij.plugins.MT.parser.IncludePaths;
+import com.intellij.plugins.MT.stats.MTStats;
 import com.intellij.psi.PsiFile;
+import com.intellij.util.Alarm;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -20,239 +32,702 @@ import java.util.List;
  * User: berkel
  * Date: 15.10.11
  * Time: 18:46
+ *
+ * Keeps include links of one document highlighted in all of its editors. The ranges are parsed once
+ * per document and every editor gets its own markup of them. Document changes only shift known ranges
+ * and mark the touched lines dirty; dirty lines are scanned on a pooled thread in short read actions,
+ * which give up as soon as the document changes again, and the result is merged into the markup on the EDT.
+ * Edits only start a parse after a short quiet period, so a burst of typing is reparsed once.
+ * Whether an include sits in a comment is looked up in the editor highlighter tokens when the parse is applied.
+ * Includes closing an include cycle get an error mark on top of the link markup.
  */
 public class IncludeLinkHighlighter {
+	// characters scanned under one read action, rounded up to whole lines
+	private static final int PARSE_CHUNK_SIZE = 64 * 1024;
+	private static final int LAZY_MODE_LINE_COUNT = 5000;
+	private static final int VISIBLE_AREA_MARGIN_LINES = 200;
+	private static final int MAX_COVERED_LINE_COUNT = 20000;
+	// quiet period in milliseconds after the last edit before the touched lines are reparsed
+	private static final int REPARSE_DELAY = Integer.getInteger("mt.include.reparse.delay", 300);
+
 	private final Project project;
 	private final VirtualFile newFile;
 	private final PsiFile psiFile;
-	private final Editor editor;
+	private final Document document;
 	private final EditorIncludeLinkParser editorIncludeLinkParser;
-	private final List<IncludeLinkTextRange> ranges = new ArrayList<IncludeLinkTextRange>();
-	private EditorInputHandler inputEditorInputHandler = null;
+	private final IncludeLinkRangeStore ranges;
+	private final List<IncludeLinkEditorMarkup> editorMarkups = new ArrayList<IncludeLinkEditorMarkup>();
+	private final IncludeCycleDetector cycleDetector;
+	private final IncludeTargetMap targetMap;
+	// paths of the range store already put into the target map
+	private int registeredPathCount = 0;
+	private IncludeCycleDetector.Listener cycleListener = null;
 	private DocumentAdapter docAdapter = null;
 	private boolean isListening = false;
+	// dirty regions in current document offsets; EDT only
+	private final DirtyRegionSet dirtyRegions = new DirtyRegionSet();
+	private final CommentRegionMap commentRegions;
+	private final Alarm parseAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD);
+	private ProgressIndicator parseIndicator = null;
+	// lazy mode parses covered regions only, the visible areas of the editors plus margins
+	private boolean lazy = false;
+	private final DirtyRegionSet coveredRegions = new DirtyRegionSet();
 	private static final Logger LOG = Logger.getInstance(IncludeLinkHighlighter.class.getName());
 
-	public IncludeLinkHighlighter(@NotNull final Project project, final VirtualFile newFile, final PsiFile psiFile, final Editor editor, EditorIncludeLinkParser editorIncludeLinkParser) {
+	public IncludeLinkHighlighter(@NotNull final Project project, final VirtualFile newFile, final PsiFile psiFile, @NotNull final Document document,
+	                              EditorIncludeLinkParser editorIncludeLinkParser, @Nullable final IncludeTargetMap targetMap) {
 		this.project = project;
 		this.newFile = newFile;
 		this.psiFile = psiFile;
-		this.editor = editor;
+		this.document = document;
 		this.editorIncludeLinkParser = editorIncludeLinkParser;
+		this.targetMap = targetMap;
+		this.ranges = new IncludeLinkRangeStore(psiFile);
+		this.commentRegions = new CommentRegionMap(psiFile);
+		this.cycleDetector = IncludeCycleDetector.getInstance(project);
 	}
 
 	public void stopListening() {
 		if (isListening) {
-			editor.removeEditorMouseListener(inputEditorInputHandler);
-			editor.removeEditorMouseMotionListener(inputEditorInputHandler);
-			editor.getContentComponent().removeKeyListener(inputEditorInputHandler);
-			editor.getDocument().removeDocumentListener(docAdapter);
+			document.removeDocumentListener(docAdapter);
+			for (IncludeLinkEditorMarkup markup : editorMarkups) {
+				markup.stopListening();
+			}
+			if (cycleDetector != null) {
+				cycleDetector.removeListener(cycleListener);
+			}
+			cancelParsing();
 			isListening = false;
 		}
 	}
 
 	public void removeAllRanges() {
-		for (IncludeLinkTextRange range : ranges) {
-			range.setActive(false);
+		for (IncludeLinkEditorMarkup markup : editorMarkups) {
+			markup.removeAll();
 		}
-		highlightLink(ranges);
 		ranges.clear();
+		if (targetMap != null) {
+			targetMap.removeAll(this);
+		}
+		registeredPathCount = 0;
 	}
 
 	public void startListeninig() {
 		if (!isListening) {
 			listenOnDocument();
-			listenOnInput();
+			listenOnCycles();
+			for (IncludeLinkEditorMarkup markup : editorMarkups) {
+				listenOnVisibleArea(markup);
+			}
 			isListening = true;
 		}
 	}
 
-	public void reparseAll() {
-		int length = editor.getDocument().getCharsSequence().length();
-		parseDocumentRanges(0, length, length);
+	public Document getDocument() {
+		return document;
 	}
 
+	/**
+	 * Shows the ranges in one more editor of the document. Known ranges are projected right away, nothing is parsed again
+	 * unless the editor shows a part of a lazily parsed document not covered yet.
+	 */
+	public void attachEditor(@NotNull final Editor editor) {
+		for (IncludeLinkEditorMarkup markup : editorMarkups) {
+			if (markup.getEditor() == editor) {
+				return;
+			}
+		}
 
-	public void checkComments() {
-		List<IncludeLinkTextRange> newRanges = new ArrayList<IncludeLinkTextRange>();
+		IncludeLinkEditorMarkup markup = new IncludeLinkEditorMarkup(editor);
+		editorMarkups.add(markup);
+		if (isListening) {
+			listenOnVisibleArea(markup);
+		}
 		for (IncludeLinkTextRange range : ranges) {
-			boolean isComment = EditorIncludeLinkParser.isComment(psiFile, range.getStartOffset());
-			if (isComment != range.isActive()) {
-				range.setActive(isComment);
-				newRanges.add(range);
+			if (range.isShown()) {
+				markup.add(range);
+				if (isCycleEdge(range)) {
+					markup.addCycleMark(range, getCycleTooltip(range));
+				}
+			}
+		}
+		if (lazy) {
+			updateCoverage();
+		}
+	}
+
+	/**
+	 * Removes the markup of a released editor.
+	 *
+	 * @return true if the document has editors left
+	 */
+	public boolean detachEditor(@NotNull final Editor editor) {
+		for (IncludeLinkEditorMarkup markup : editorMarkups) {
+			if (markup.getEditor() == editor) {
+				markup.stopListening();
+				if (!editor.isDisposed()) {
+					markup.removeAll();
+				}
+				editorMarkups.remove(markup);
+				break;
+			}
+		}
+		return !editorMarkups.isEmpty();
+	}
+
+	public void reparseAll() {
+		lazy = document.getLineCount() > LAZY_MODE_LINE_COUNT;
+		if (lazy) {
+			coveredRegions.clear();
+			updateCoverage();
+		} else {
+			markDirty(0, document.getTextLength(), 0);
+		}
+	}
+
+	private void listenOnVisibleArea(final IncludeLinkEditorMarkup markup) {
+		markup.listenOnVisibleArea(new VisibleAreaListener() {
+			public void visibleAreaChanged(final VisibleAreaEvent e) {
+				if (lazy) {
+					updateCoverage();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Extends coverage to the visible areas of all editors plus margin, or moves it there if it would grow too large.
+	 */
+	private void updateCoverage() {
+		DirtyRegionSet windows = new DirtyRegionSet();
+		for (IncludeLinkEditorMarkup markup : editorMarkups) {
+			int[] window = markup.getVisibleWindow(VISIBLE_AREA_MARGIN_LINES);
+			if (window != null) {
+				windows.add(window[0], window[1]);
+			}
+		}
+		if (windows.isEmpty()) {
+			return;
+		}
+
+		DirtyRegionSet uncovered = new DirtyRegionSet();
+		for (int i = 0; i < windows.size(); i++) {
+			addUncovered(windows.getStart(i), windows.getEnd(i), uncovered);
+		}
+		if (uncovered.isEmpty()) {
+			return;
+		}
+
+		if (getLineCount(coveredRegions) + getLineCount(uncovered) <= MAX_COVERED_LINE_COUNT) {
+			for (int i = 0; i < uncovered.size(); i++) {
+				coveredRegions.add(uncovered.getStart(i), uncovered.getEnd(i));
+			}
+			for (int i = 0; i < uncovered.size(); i++) {
+				markDirty(uncovered.getStart(i), uncovered.getEnd(i), 0);
+			}
+		} else {
+			// far jump or too much text covered, forget everything outside of the windows
+			int forgetFrom = 0;
+			for (int i = 0; i < windows.size(); i++) {
+				forgetDocumentRanges(forgetFrom, windows.getStart(i));
+				forgetFrom = windows.getEnd(i) + 1;
+			}
+			forgetDocumentRanges(forgetFrom, Integer.MAX_VALUE);
+			coveredRegions.clear();
+			dirtyRegions.clear();
+			for (int i = 0; i < windows.size(); i++) {
+				coveredRegions.add(windows.getStart(i), windows.getEnd(i));
+			}
+			for (int i = 0; i < windows.size(); i++) {
+				markDirty(windows.getStart(i), windows.getEnd(i), 0);
 			}
 		}
+	}
 
-		if (!newRanges.isEmpty()) {
-			highlightLink(newRanges);
+	/**
+	 * Adds the parts of [start, end] outside of coverage to <code>uncovered</code>.
+	 */
+	private void addUncovered(final int start, final int end, final DirtyRegionSet uncovered) {
+		int from = start;
+		for (int i = 0; i < coveredRegions.size() && coveredRegions.getStart(i) <= end; i++) {
+			if (coveredRegions.getEnd(i) < from) {
+				continue;
+			}
+			if (coveredRegions.getStart(i) > from) {
+				uncovered.add(from, coveredRegions.getStart(i) - 1);
+			}
+			from = coveredRegions.getEnd(i) + 1;
+		}
+		if (from <= end) {
+			uncovered.add(from, end);
 		}
 	}
 
-	private void listenOnInput() {
-		inputEditorInputHandler = new EditorInputHandler(project, editor, psiFile, editorIncludeLinkParser);
-		editor.getContentComponent().addKeyListener(inputEditorInputHandler);
-		editor.addEditorMouseMotionListener(inputEditorInputHandler);
-		editor.addEditorMouseListener(inputEditorInputHandler);
+	private int getLineCount(final DirtyRegionSet regions) {
+		int lineCount = 0;
+		int textLength = document.getTextLength();
+		for (int i = 0; i < regions.size(); i++) {
+			int start = Math.min(regions.getStart(i), textLength);
+			int end = Math.min(regions.getEnd(i), textLength);
+			lineCount += document.getLineNumber(end) - document.getLineNumber(start) + 1;
+		}
+		return lineCount;
+	}
+
+	private void listenOnCycles() {
+		if (cycleDetector == null) {
+			return;
+		}
+		cycleListener = new IncludeCycleDetector.Listener() {
+			public void cyclesChanged() {
+				refreshCycleMarkers();
+			}
+		};
+		cycleDetector.addListener(cycleListener);
 	}
 
 	private void listenOnDocument() {
-		final Document doc = editor.getDocument();
 		docAdapter = new DocumentAdapter() {
 
 			public void beforeDocumentChange(final DocumentEvent event) {
-				if (event.getNewLength() < event.getOldLength()) { //deletion
+				commentRegions.beforeDocumentChange(getAnyEditor(), event);
+				if (event.getOldLength() > 0) { //deletion or replacement
 					forgetDocumentRanges(event.getOffset(), event.getOffset() + event.getOldLength());
 				}
 				super.beforeDocumentChange(event);
 			}
 
 			public void documentChanged(final DocumentEvent event) {
-				parseDocumentRanges(event.getOffset(), event.getOldLength(), event.getNewLength());
+				commentRegions.documentChanged(getAnyEditor(), event);
+				documentRangesChanged(event.getOffset(), event.getOldLength(), event.getNewLength());
 				super.documentChanged(event);
 			}
 		};
 
-		doc.addDocumentListener(docAdapter);
-		//@todo: implement unregistering listener
+		document.addDocumentListener(docAdapter);
+	}
+
+	private void documentRangesChanged(final int offset, final int oldLength, final int newLength) {
+		if (newLength != oldLength) {
+			ranges.shiftTail(offset, newLength - oldLength);
+		}
 
+		dirtyRegions.shift(offset, oldLength, newLength);
+		if (lazy) {
+			coveredRegions.shift(offset, oldLength, newLength);
+		}
+		markDirty(offset, offset + newLength, REPARSE_DELAY);
 	}
 
-	private void parseDocumentRanges(final int offset, final int oldLength, final int newLength) {
-		List<IncludeLinkTextRange> newRanges = editorIncludeLinkParser.getIncludeLinkTextRange(psiFile, editor, getStartLineOffset(editor, offset), getEndLineOffset(editor, offset + newLength));
-		List<IncludeLinkTextRange> rangesToForget = new ArrayList<IncludeLinkTextRange>();
-		List<IncludeLinkTextRange> intersectingRanges = getIntersectingRanges(offset, oldLength);
+	/**
+	 * Adds [start, end] to the dirty region and reschedules parsing. In lazy mode lines outside of
+	 * coverage are not parsed at all, but a running parse is still restarted as the document changed.
+	 */
+	private void markDirty(final int start, final int end, final int delay) {
+		if (lazy) {
+			for (int i = 0; i < coveredRegions.size() && coveredRegions.getStart(i) <= end; i++) {
+				int coveredStart = Math.max(start, coveredRegions.getStart(i));
+				int coveredEnd = Math.min(end, coveredRegions.getEnd(i));
+				if (coveredStart <= coveredEnd) {
+					dirtyRegions.add(coveredStart, coveredEnd);
+				}
+			}
+			if (!dirtyRegions.isEmpty()) {
+				scheduleParsing(delay);
+			}
+			return;
+		}
 
-		if (newLength != oldLength) {
-			// shift ranges
-			for (IncludeLinkTextRange range : ranges) {
-				if (range.getStartOffset() >= offset) {
-					range.shift(newLength - oldLength);
+		dirtyRegions.add(start, end);
+		scheduleParsing(delay);
+	}
+
+	private void cancelParsing() {
+		parseAlarm.cancelAllRequests();
+		if (parseIndicator != null) {
+			parseIndicator.cancel();
+			parseIndicator = null;
+		}
+	}
+
+	/**
+	 * Restarts the quiet period after which the dirty regions are parsed, dropping the parse in progress if any.
+	 * Regions stay dirty until a parse of them gets applied, so a cancelled parse is never lost.
+	 */
+	private void scheduleParsing(final int delay) {
+		cancelParsing();
+		if (delay <= 0) {
+			startParsing();
+		} else {
+			parseAlarm.addRequest(new Runnable() {
+				public void run() {
+					if (isListening) {
+						startParsing();
+					}
 				}
+			}, delay);
+		}
+	}
+
+	private void startParsing() {
+		final ProgressIndicator indicator = new EmptyProgressIndicator();
+		final long stamp = document.getModificationStamp();
+		final int[] bounds = getDirtyBounds();
+		parseIndicator = indicator;
+
+		final Application application = ApplicationManager.getApplication();
+		application.executeOnPooledThread(new Runnable() {
+			public void run() {
+				long start = MTStats.start();
+				final List<ParsedRegion> regions = parseRegions(indicator, stamp, bounds);
+				MTStats.stop(MTStats.Stage.PARSE, start, newFile);
+				if (regions == null) {
+					return;
+				}
+
+				application.invokeLater(new Runnable() {
+					public void run() {
+						if (indicator.isCanceled() || parseIndicator != indicator || !isListening || document.getModificationStamp() != stamp) {
+							return;
+						}
+						parseIndicator = null;
+						applyParsedRegions(regions);
+					}
+				});
+			}
+		});
+	}
+
+	private int[] getDirtyBounds() {
+		int[] bounds = new int[dirtyRegions.size() * 2];
+		for (int i = 0; i < dirtyRegions.size(); i++) {
+			bounds[2 * i] = dirtyRegions.getStart(i);
+			bounds[2 * i + 1] = dirtyRegions.getEnd(i);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Comments are looked up in the lexer tokens of any editor, they all highlight the same text.
+	 */
+	private boolean isComment(final int offset) {
+		return commentRegions.isComment(getAnyEditor(), offset);
+	}
+
+	@Nullable
+	private Editor getAnyEditor() {
+		return editorMarkups.isEmpty() ? null : editorMarkups.get(0).getEditor();
+	}
+
+	private void applyParsedRegions(final List<ParsedRegion> regions) {
+		long start = MTStats.start();
+		dirtyRegions.clear();
+		boolean includesChanged = false;
+		for (ParsedRegion region : regions) {
+			for (IncludeLinkTextRange range : region.ranges) {
+				range.setActive(isComment(range.getStartOffset()));
 			}
+			includesChanged |= applyParsedRanges(region.startOffset, region.endOffset, region.ranges);
+		}
+
+		int commentsChangedFrom = commentRegions.takeChangedFrom();
+		if (commentsChangedFrom >= 0) {
+			recheckComments(commentsChangedFrom);
 		}
+		registerTargets();
 
-		for (IncludeLinkTextRange irange : intersectingRanges) {
-			boolean oldInNew = false;
-			for (IncludeLinkTextRange newRange : newRanges) {
-				if (irange.equals(newRange)) {
-					oldInNew = true;
-					break;
+		if (includesChanged && cycleDetector != null && newFile != null) {
+			cycleDetector.fileChanged(newFile);
+		}
+		MTStats.stop(MTStats.Stage.APPLY, start, newFile);
+	}
+
+	/**
+	 * Brings error marks of all highlighted includes in line with the include graph.
+	 */
+	private void refreshCycleMarkers() {
+		for (IncludeLinkTextRange range : ranges) {
+			boolean cyclic = range.isShown() && isCycleEdge(range);
+			for (IncludeLinkEditorMarkup markup : editorMarkups) {
+				if (cyclic && !markup.isCycleMarked(range)) {
+					markup.addCycleMark(range, getCycleTooltip(range));
+				} else if (!cyclic && markup.isCycleMarked(range)) {
+					markup.removeCycleMark(range);
 				}
 			}
+		}
+	}
+
+	private boolean isCycleEdge(final IncludeLinkTextRange range) {
+		VirtualFile includedFile = range.getVirtualFile();
+		return cycleDetector != null && newFile != null && includedFile != null && includedFile.isValid()
+				&& cycleDetector.isCycleEdge(newFile, includedFile);
+	}
+
+	private String getCycleTooltip(final IncludeLinkTextRange range) {
+		return "Include cycle: " + range.getVirtualFile().getName() + " includes " + newFile.getName() + " back";
+	}
 
-			if (!oldInNew) {
-				rangesToForget.add(irange);
+	/**
+	 * Resolves again the includes written as one of <code>writtenPaths</code>, after files they point to
+	 * appeared or went, and highlights or unhighlights the ones whose answer changed. Nothing is reparsed,
+	 * except dirty lines whose parse is running, as it may have resolved them before the change.
+	 */
+	public void revalidate(@NotNull final Collection<String> writtenPaths) {
+		long start = MTStats.start();
+		List<IncludeLinkTextRange> rangesToUnhighlight = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> rangesToHighlight = new ArrayList<IncludeLinkTextRange>();
+		for (IncludeLinkTextRange range : ranges.getWithPaths(writtenPaths)) {
+			boolean resolved = range.getVirtualFile() != null;
+			if (resolved != range.isResolved()) {
+				ranges.setResolved(range, resolved);
+				if (range.isShown()) {
+					rangesToHighlight.add(range);
+				} else {
+					rangesToUnhighlight.add(range);
+				}
 			}
 		}
+		updateMarkup(rangesToUnhighlight, rangesToHighlight);
+		MTStats.stop(MTStats.Stage.REVALIDATE, start, newFile);
+
+		if (parseIndicator != null && isListening) {
+			scheduleParsing(0);
+		}
+	}
 
-		if (!rangesToForget.isEmpty()) {
-			for (IncludeLinkTextRange range : rangesToForget) {
-				range.setActive(false);
-				ranges.remove(range);
+	/**
+	 * Puts paths the range store met since the last call into the target map.
+	 */
+	private void registerTargets() {
+		VirtualFile dir = newFile != null ? newFile.getParent() : null;
+		if (targetMap == null || dir == null) {
+			return;
+		}
+		String dirPath = dir.getPath();
+		for (; registeredPathCount < ranges.getPathCount(); registeredPathCount++) {
+			String writtenPath = ranges.getPath(registeredPathCount);
+			String targetPath = IncludePaths.resolve(dirPath, writtenPath);
+			if (targetPath != null) {
+				targetMap.add(targetPath, this, writtenPath);
 			}
-			highlightLink(rangesToForget);
 		}
+	}
 
-		if (!newRanges.isEmpty()) {
-			List<IncludeLinkTextRange> rangesToRemember = new ArrayList<IncludeLinkTextRange>();
-			for (IncludeLinkTextRange range : newRanges) {
-				if (!ranges.contains(range)) {
-					rangesToRemember.add(range);
+	/**
+	 * A comment opened or closed by an edit changes every include after it, not only the reparsed lines.
+	 */
+	private void recheckComments(final int fromOffset) {
+		List<IncludeLinkTextRange> rangesToUnhighlight = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> rangesToHighlight = new ArrayList<IncludeLinkTextRange>();
+		for (IncludeLinkTextRange range : ranges.getIntersecting(fromOffset, Integer.MAX_VALUE)) {
+			boolean isComment = isComment(range.getStartOffset());
+			if (isComment != range.isActive()) {
+				ranges.setActive(range, isComment);
+				if (range.isShown()) {
+					rangesToHighlight.add(range);
+				} else {
+					rangesToUnhighlight.add(range);
 				}
 			}
+		}
+		updateMarkup(rangesToUnhighlight, rangesToHighlight);
+	}
 
-			if (!rangesToRemember.isEmpty()) {
-				ranges.addAll(rangesToRemember);
-				highlightLink(ranges);
+	/**
+	 * Scans whole lines covering the [start, end] pairs of <code>bounds</code> chunk by chunk,
+	 * each chunk under its own read action. Intervals sharing lines are parsed once.
+	 *
+	 * @return parsed regions, or null if the parse was cancelled or the document changed meanwhile
+	 */
+	private List<ParsedRegion> parseRegions(final ProgressIndicator indicator, final long stamp, final int[] bounds) {
+		final Application application = ApplicationManager.getApplication();
+		final List<ParsedRegion> regions = application.runReadAction(new Computable<List<ParsedRegion>>() {
+			public List<ParsedRegion> compute() {
+				if (isOutdated(indicator, stamp)) {
+					return null;
+				}
 
+				List<ParsedRegion> lineRegions = new ArrayList<ParsedRegion>();
+				for (int i = 0; i < bounds.length; i += 2) {
+					int startLineOffset = getStartLineOffset(document, bounds[i]);
+					int endLineOffset = getEndLineOffset(document, bounds[i + 1]);
+					ParsedRegion last = lineRegions.isEmpty() ? null : lineRegions.get(lineRegions.size() - 1);
+					if (last != null && startLineOffset <= last.endOffset) {
+						lineRegions.set(lineRegions.size() - 1, new ParsedRegion(last.startOffset, Math.max(last.endOffset, endLineOffset)));
+					} else {
+						lineRegions.add(new ParsedRegion(startLineOffset, endLineOffset));
+					}
+				}
+				return lineRegions;
 			}
+		});
+		if (regions == null) {
+			return null;
 		}
+
+		for (ParsedRegion region : regions) {
+			if (!parseRegion(indicator, stamp, region)) {
+				return null;
+			}
+		}
+		return regions;
 	}
 
-	private List<IncludeLinkTextRange> getIntersectingRanges(final int offset, final int oldLength) {
-		List<IncludeLinkTextRange> intersecting = new ArrayList<IncludeLinkTextRange>();
-		for (IncludeLinkTextRange range : ranges) {
-			if (Math.max(range.getStartOffset(), offset) <= Math.min(range.getEndOffset(), offset + oldLength)) {
-				intersecting.add(range);
+	private boolean parseRegion(final ProgressIndicator indicator, final long stamp, final ParsedRegion region) {
+		final Application application = ApplicationManager.getApplication();
+		int chunkStart = region.startOffset;
+		do {
+			final int from = chunkStart;
+			Integer chunkEnd = application.runReadAction(new Computable<Integer>() {
+				public Integer compute() {
+					if (isOutdated(indicator, stamp)) {
+						return null;
+					}
+
+					int to = Math.min(getEndLineOffset(document, from + PARSE_CHUNK_SIZE), region.endOffset);
+					region.ranges.addAll(editorIncludeLinkParser.getIncludeLinkTextRange(psiFile, document, from, to));
+					return to;
+				}
+			});
+			if (chunkEnd == null) {
+				return false;
 			}
+			chunkStart = chunkEnd + 1;
+		} while (chunkStart < region.endOffset);
+
+		return true;
+	}
+
+	private boolean isOutdated(final ProgressIndicator indicator, final long stamp) {
+		return indicator.isCanceled() || !isListening || document.getModificationStamp() != stamp;
+	}
+
+	/**
+	 * @return true if includes were added or removed
+	 */
+	private boolean applyParsedRanges(final int startLineOffset, final int endLineOffset, final List<IncludeLinkTextRange> newRanges) {
+		List<IncludeLinkTextRange> forgotten = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> remembered = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> changed = new ArrayList<IncludeLinkTextRange>();
+		ranges.replace(startLineOffset, endLineOffset, newRanges, forgotten, remembered, changed);
+
+		List<IncludeLinkTextRange> rangesToUnhighlight = new ArrayList<IncludeLinkTextRange>(forgotten);
+		List<IncludeLinkTextRange> rangesToHighlight = new ArrayList<IncludeLinkTextRange>();
+		for (IncludeLinkTextRange range : changed) {
+			if (range.isShown()) {
+				rangesToHighlight.add(range);
+			} else {
+				rangesToUnhighlight.add(range);
+			}
+		}
+		for (IncludeLinkTextRange range : remembered) {
+			if (range.isShown()) {
+				rangesToHighlight.add(range);
+			}
+		}
+
+		updateMarkup(rangesToUnhighlight, rangesToHighlight);
+		return !forgotten.isEmpty() || !remembered.isEmpty();
+	}
+
+	private static final class ParsedRegion {
+		private final int startOffset;
+		private final int endOffset;
+		private final List<IncludeLinkTextRange> ranges = new ArrayList<IncludeLinkTextRange>();
+
+		private ParsedRegion(final int startOffset, final int endOffset) {
+			this.startOffset = startOffset;
+			this.endOffset = endOffset;
 		}
-		return intersecting;
 	}
 
 	public static int getEndLineOffset(final Editor editor, final int o) {
-		final int textLength = editor.getDocument().getTextLength();
+		return getEndLineOffset(editor.getDocument(), o);
+	}
+
+	public static int getEndLineOffset(final Document document, final int o) {
+		final int textLength = document.getTextLength();
 		int offset = Math.max(Math.min(o, Math.max(0, textLength)), Math.min(0, textLength));
-		int lineCount = editor.getDocument().getLineCount();
+		int lineCount = document.getLineCount();
 		int lineNumber = 0;
 
 		if (offset < 0) {
 			lineNumber = 0;
 		} else if (offset < textLength) {
-			lineNumber = editor.getDocument().getLineNumber(offset);
+			lineNumber = document.getLineNumber(offset);
 		} else {
 			lineNumber = lineCount - 1;
 		}
 
 		if (lineNumber >= 0 && lineNumber < lineCount) {
-			return editor.getDocument().getLineEndOffset(lineNumber);
+			return document.getLineEndOffset(lineNumber);
 		} else {
 			return 0;
 		}
 	}
 
-	private void highlightLink(final List<IncludeLinkTextRange> rangesList) {
-		MarkupModel markupModel = editor.getMarkupModel();
-		for (RangeHighlighter h : markupModel.getAllHighlighters()) {
-			IncludeLinkTextRange range = IncludeLinkTextRange.getFrom(h);
-			if (range != null && rangesList.contains(range) && !range.isActive()) {
-				markupModel.removeHighlighter(h);
+	/**
+	 * Removes markup of <code>toRemove</code> and adds it for <code>toAdd</code> in every editor, touching nothing else.
+	 */
+	private void updateMarkup(final Collection<IncludeLinkTextRange> toRemove, final Collection<IncludeLinkTextRange> toAdd) {
+		if (toRemove.isEmpty() && toAdd.isEmpty() || editorMarkups.isEmpty()) {
+			return;
+		}
+		long start = MTStats.start();
+		for (IncludeLinkTextRange range : toRemove) {
+			for (IncludeLinkEditorMarkup markup : editorMarkups) {
+				markup.remove(range);
 			}
 		}
 
-		for (IncludeLinkTextRange urlTextRange : rangesList) {
-			if (urlTextRange.isActive()) {
-				urlTextRange.addLinkHighlighter(editor);
+		for (IncludeLinkTextRange range : toAdd) {
+			if (!range.isShown()) {
+				continue;
+			}
+			boolean cyclic = isCycleEdge(range);
+			for (IncludeLinkEditorMarkup markup : editorMarkups) {
+				if (!markup.isHighlighted(range)) {
+					markup.add(range);
+					if (cyclic) {
+						markup.addCycleMark(range, getCycleTooltip(range));
+					}
+				}
 			}
 		}
+		MTStats.stop(MTStats.Stage.MARKUP, start);
 	}
 
 	public static int getStartLineOffset(final Editor editor, final int o) {
-		final int textLength = editor.getDocument().getTextLength();
+		return getStartLineOffset(editor.getDocument(), o);
+	}
+
+	public static int getStartLineOffset(final Document document, final int o) {
+		final int textLength = document.getTextLength();
 		int offset = Math.max(Math.min(o, Math.max(0, textLength)), Math.min(0, textLength));
-		int lineCount = editor.getDocument().getLineCount();
+		int lineCount = document.getLineCount();
 		int lineNumber = 0;
 
 		if (offset < 0) {
 			lineNumber = 0;
 		} else if (offset < textLength) {
-			lineNumber = editor.getDocument().getLineNumber(offset);
+			lineNumber = document.getLineNumber(offset);
 		} else {
 			lineNumber = lineCount - 1;
 		}
 
 		if (lineNumber >= 0 && lineNumber < lineCount) {
-			return editor.getDocument().getLineStartOffset(lineNumber);
+			return document.getLineStartOffset(lineNumber);
 		} else {
 			return 0;
 		}
 	}
 
 	private void forgetDocumentRanges(final int start, final int end) {
-		List<IncludeLinkTextRange> forgetRangesList = new ArrayList<IncludeLinkTextRange>();
-		for (IncludeLinkTextRange urlRange : ranges) {
-			if (Math.max(start, urlRange.getStartOffset()) < Math.min(end, urlRange.getEndOffset())) {
-				forgetRangesList.add(urlRange);
-				urlRange.setActive(false);
-			}
-
-			if (!forgetRangesList.isEmpty()) {
-				highlightLink(forgetRangesList);
-			}
-
-		}
-
+		List<IncludeLinkTextRange> forgetRangesList = ranges.getOverlapping(start, end);
 		if (!forgetRangesList.isEmpty()) {
 			ranges.removeAll(forgetRangesList);
+			updateMarkup(forgetRangesList, Collections.<IncludeLinkTextRange>emptyList());
 		}
 	}
 }
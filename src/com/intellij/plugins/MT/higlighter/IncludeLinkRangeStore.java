@@ -0,0 +1,454 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 10:12
+ *
+ * Offset-ordered storage of include ranges of one document.
+ * Ranges never overlap, so they are kept sorted by start offset and looked up with binary search.
+ * Ranges are stored in parallel primitive arrays with paths interned in a table, which costs a few
+ * ints per include; {@link IncludeLinkTextRange} objects handed out are views made on request and
+ * are identified by their id, which stays the same while the range is stored.
+ * Tail shifts after an edit are lazy: ranges starting at {@code pendingIndex} and later carry
+ * {@code pendingDelta} which is applied only when the boundary moves. A shift costs O(log n + d),
+ * d being the number of ranges between the edit and the boundary left by the one before, so
+ * consecutive edits around the same place cost O(log n) while edits at far apart places in turn
+ * cost O(n) each. {@link #add} and {@link #remove} move the following array elements, O(n) too.
+ * Both linear parts are array copies or plain int loops, cheap next to the markup an edit changes.
+ */
+final class IncludeLinkRangeStore implements Iterable<IncludeLinkTextRange> {
+	private static final byte FLAG_ACTIVE = 1;
+	private static final byte FLAG_RESOLVED = 2;
+
+	private final PsiFile file;
+	private int size = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int[] pathIds = new int[16];
+	private int[] ids = new int[16];
+	private byte[] flags = new byte[16];
+	private final List<String> paths = new ArrayList<String>();
+	private final Map<String, Integer> pathTable = new HashMap<String, Integer>();
+	private int nextId = 1;
+	private int pendingIndex = 0;
+	private int pendingDelta = 0;
+
+	IncludeLinkRangeStore(final PsiFile file) {
+		this.file = file;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Shifts every range starting at or after <code>offset</code> by <code>delta</code>.
+	 */
+	public void shiftTail(final int offset, final int delta) {
+		if (delta == 0 || size == 0) {
+			return;
+		}
+
+		int index = firstStartingAtOrAfter(offset);
+		if (index == size) {
+			return;
+		}
+
+		if (pendingDelta == 0) {
+			pendingIndex = index;
+		}
+
+		if (index >= pendingIndex) {
+			moveBoundary(index);
+			pendingDelta += delta;
+		} else {
+			// ranges between index and the old boundary get the delta right away,
+			// the ones behind the boundary accumulate it lazily
+			for (int i = index; i < pendingIndex; i++) {
+				starts[i] += delta;
+				ends[i] += delta;
+			}
+			if (pendingIndex < size) {
+				pendingDelta += delta;
+			}
+		}
+	}
+
+	/**
+	 * Returns ranges touching the [start, end] interval, boundaries included.
+	 */
+	@NotNull
+	public List<IncludeLinkTextRange> getIntersecting(final int start, final int end) {
+		return collect(start, end, false);
+	}
+
+	/**
+	 * Returns ranges sharing at least one character with the [start, end) interval.
+	 */
+	@NotNull
+	public List<IncludeLinkTextRange> getOverlapping(final int start, final int end) {
+		return collect(start, end, true);
+	}
+
+	/**
+	 * Returns the range containing <code>offset</code>, range end included, or null.
+	 */
+	public IncludeLinkTextRange findAt(final int offset) {
+		int index = firstEndingAtOrAfter(offset);
+		if (index < size && startOf(index) <= offset) {
+			return get(index);
+		}
+		return null;
+	}
+
+	public boolean contains(final IncludeLinkTextRange range) {
+		return indexOf(range) >= 0;
+	}
+
+	/**
+	 * Stores <code>range</code> and gives it its id.
+	 */
+	public void add(@NotNull final IncludeLinkTextRange range) {
+		int index = firstStartingAtOrAfter(range.getStartOffset());
+		if (index >= pendingIndex) {
+			moveBoundary(index);
+		}
+		pendingIndex++;
+
+		if (size == starts.length) {
+			int capacity = size * 2;
+			starts = Arrays.copyOf(starts, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			pathIds = Arrays.copyOf(pathIds, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		int tail = size - index;
+		System.arraycopy(starts, index, starts, index + 1, tail);
+		System.arraycopy(ends, index, ends, index + 1, tail);
+		System.arraycopy(pathIds, index, pathIds, index + 1, tail);
+		System.arraycopy(ids, index, ids, index + 1, tail);
+		System.arraycopy(flags, index, flags, index + 1, tail);
+		size++;
+
+		range.setId(nextId++);
+		starts[index] = range.getStartOffset();
+		ends[index] = range.getEndOffset();
+		pathIds[index] = internPath(range.getFilePathAsWritten());
+		ids[index] = range.getId();
+		flags[index] = flagsOf(range);
+	}
+
+	public boolean remove(@NotNull final IncludeLinkTextRange range) {
+		int index = indexOf(range);
+		if (index < 0) {
+			return false;
+		}
+
+		if (index < pendingIndex) {
+			pendingIndex--;
+		}
+		int tail = size - index - 1;
+		System.arraycopy(starts, index + 1, starts, index, tail);
+		System.arraycopy(ends, index + 1, ends, index, tail);
+		System.arraycopy(pathIds, index + 1, pathIds, index, tail);
+		System.arraycopy(ids, index + 1, ids, index, tail);
+		System.arraycopy(flags, index + 1, flags, index, tail);
+		size--;
+		if (pendingIndex >= size) {
+			pendingIndex = size;
+			pendingDelta = 0;
+		}
+		return true;
+	}
+
+	public void removeAll(@NotNull final Collection<IncludeLinkTextRange> toRemove) {
+		for (IncludeLinkTextRange range : toRemove) {
+			remove(range);
+		}
+	}
+
+	/**
+	 * Sets the active flag of the stored range and of the view.
+	 */
+	public void setActive(@NotNull final IncludeLinkTextRange range, final boolean active) {
+		range.setActive(active);
+		setFlag(range, FLAG_ACTIVE, active);
+	}
+
+	/**
+	 * Sets the resolved flag of the stored range and of the view.
+	 */
+	public void setResolved(@NotNull final IncludeLinkTextRange range, final boolean resolved) {
+		range.setResolved(resolved);
+		setFlag(range, FLAG_RESOLVED, resolved);
+	}
+
+	public int getPathCount() {
+		return paths.size();
+	}
+
+	/**
+	 * Returns a path as written by its number; numbers are given in order of first appearance and kept until {@link #clear()}.
+	 */
+	@NotNull
+	public String getPath(final int pathId) {
+		return paths.get(pathId);
+	}
+
+	/**
+	 * Returns ranges whose path as written is one of <code>writtenPaths</code>, in offset order.
+	 */
+	@NotNull
+	public List<IncludeLinkTextRange> getWithPaths(@NotNull final Collection<String> writtenPaths) {
+		boolean[] wanted = new boolean[paths.size()];
+		boolean any = false;
+		for (String path : writtenPaths) {
+			Integer pathId = pathTable.get(path);
+			if (pathId != null) {
+				wanted[pathId] = true;
+				any = true;
+			}
+		}
+		if (!any) {
+			return Collections.emptyList();
+		}
+
+		List<IncludeLinkTextRange> result = new ArrayList<IncludeLinkTextRange>();
+		for (int i = 0; i < size; i++) {
+			if (wanted[pathIds[i]]) {
+				result.add(get(i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Replaces ranges touching [start, end] by <code>newRanges</code>, which must be in offset order.
+	 * A stored range equal to a new one is kept and takes over its active and resolved flags.
+	 *
+	 * @param forgotten  receives stored ranges with no new counterpart, they are removed
+	 * @param remembered receives new ranges with no stored counterpart, they are added
+	 * @param changed    receives kept ranges whose flags changed
+	 */
+	public void replace(final int start, final int end, @NotNull final List<IncludeLinkTextRange> newRanges,
+	                    @NotNull final Collection<IncludeLinkTextRange> forgotten,
+	                    @NotNull final Collection<IncludeLinkTextRange> remembered,
+	                    @NotNull final Collection<IncludeLinkTextRange> changed) {
+		List<IncludeLinkTextRange> stale = new ArrayList<IncludeLinkTextRange>();
+
+		// both lists are in offset order, so one merge pass pairs them up
+		int newIndex = 0;
+		for (int i = firstEndingAtOrAfter(start); i < size && startOf(i) <= end; i++) {
+			while (newIndex < newRanges.size() && newRanges.get(newIndex).getStartOffset() < startOf(i)) {
+				newIndex++;
+			}
+
+			if (newIndex < newRanges.size() && matches(i, newRanges.get(newIndex))) {
+				byte newFlags = flagsOf(newRanges.get(newIndex));
+				if (newFlags != flags[i]) {
+					flags[i] = newFlags;
+					changed.add(get(i));
+				}
+			} else {
+				stale.add(get(i));
+			}
+		}
+		removeAll(stale);
+		forgotten.addAll(stale);
+
+		for (IncludeLinkTextRange range : newRanges) {
+			if (!contains(range)) {
+				add(range);
+				remembered.add(range);
+			}
+		}
+	}
+
+	public void clear() {
+		size = 0;
+		pendingIndex = 0;
+		pendingDelta = 0;
+		paths.clear();
+		pathTable.clear();
+	}
+
+	/**
+	 * Returns a snapshot of all ranges in offset order.
+	 */
+	@NotNull
+	public List<IncludeLinkTextRange> toList() {
+		List<IncludeLinkTextRange> list = new ArrayList<IncludeLinkTextRange>(size);
+		for (int i = 0; i < size; i++) {
+			list.add(get(i));
+		}
+		return list;
+	}
+
+	public Iterator<IncludeLinkTextRange> iterator() {
+		return new Iterator<IncludeLinkTextRange>() {
+			private int index = 0;
+
+			public boolean hasNext() {
+				return index < size;
+			}
+
+			public IncludeLinkTextRange next() {
+				if (index >= size) {
+					throw new NoSuchElementException();
+				}
+				return get(index++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	private List<IncludeLinkTextRange> collect(final int start, final int end, final boolean strict) {
+		if (strict ? end <= start : end < start) {
+			return Collections.emptyList();
+		}
+
+		int index = strict ? firstEndingAfter(start) : firstEndingAtOrAfter(start);
+		List<IncludeLinkTextRange> result = null;
+		for (int i = index; i < size; i++) {
+			int rangeStart = startOf(i);
+			if (strict ? rangeStart >= end : rangeStart > end) {
+				break;
+			}
+			if (result == null) {
+				result = new ArrayList<IncludeLinkTextRange>();
+			}
+			result.add(get(i));
+		}
+		return result != null ? result : Collections.<IncludeLinkTextRange>emptyList();
+	}
+
+	private IncludeLinkTextRange get(final int index) {
+		return new IncludeLinkTextRange(file, startOf(index), endOf(index), paths.get(pathIds[index]),
+				(flags[index] & FLAG_ACTIVE) != 0, (flags[index] & FLAG_RESOLVED) != 0, ids[index]);
+	}
+
+	private static byte flagsOf(final IncludeLinkTextRange range) {
+		return (byte) ((range.isActive() ? FLAG_ACTIVE : 0) | (range.isResolved() ? FLAG_RESOLVED : 0));
+	}
+
+	private void setFlag(final IncludeLinkTextRange range, final byte flag, final boolean value) {
+		int index = indexOf(range);
+		if (index >= 0) {
+			flags[index] = (byte) (value ? flags[index] | flag : flags[index] & ~flag);
+		}
+	}
+
+	/**
+	 * Returns the index of the stored range with the id of <code>range</code>, or its offsets and path if it has none.
+	 */
+	private int indexOf(final IncludeLinkTextRange range) {
+		int index = firstStartingAtOrAfter(range.getStartOffset());
+		if (index >= size) {
+			return -1;
+		}
+		if (range.getId() != 0) {
+			return ids[index] == range.getId() ? index : -1;
+		}
+		return matches(index, range) ? index : -1;
+	}
+
+	private boolean matches(final int index, final IncludeLinkTextRange range) {
+		return startOf(index) == range.getStartOffset() && endOf(index) == range.getEndOffset()
+				&& paths.get(pathIds[index]).equals(range.getFilePathAsWritten());
+	}
+
+	private int internPath(final String path) {
+		Integer pathId = pathTable.get(path);
+		if (pathId == null) {
+			pathId = paths.size();
+			paths.add(path);
+			pathTable.put(path, pathId);
+		}
+		return pathId;
+	}
+
+	/**
+	 * Applies the pending delta to every range before <code>index</code>.
+	 */
+	private void moveBoundary(final int index) {
+		if (index <= pendingIndex) {
+			return;
+		}
+		if (pendingDelta == 0) {
+			pendingIndex = index;
+			return;
+		}
+		for (int i = pendingIndex; i < index; i++) {
+			starts[i] += pendingDelta;
+			ends[i] += pendingDelta;
+		}
+		pendingIndex = index;
+		if (pendingIndex >= size) {
+			pendingIndex = size;
+			pendingDelta = 0;
+		}
+	}
+
+	private int startOf(final int index) {
+		return index >= pendingIndex ? starts[index] + pendingDelta : starts[index];
+	}
+
+	private int endOf(final int index) {
+		return index >= pendingIndex ? ends[index] + pendingDelta : ends[index];
+	}
+
+	private int firstStartingAtOrAfter(final int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (startOf(mid) < offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int firstEndingAtOrAfter(final int offset) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (endOf(mid) < offset) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	private int firstEndingAfter(final int offset) {
+		return firstEndingAtOrAfter(offset + 1);
+	}
+}
@@ -1,13 +1,9 @@
 package com.intellij.plugins.MT.higlighter;
 
 import com.intellij.openapi.diagnostic.Logger;
-import com.intellij.openapi.editor.Editor;
 import com.intellij.openapi.editor.SyntaxHighlighterColors;
 import com.intellij.openapi.editor.markup.*;
-import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Key;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.plugins.MT.util.FileUtil;
 import com.intellij.psi.PsiFile;
 import org.jetbrains.annotations.NotNull;
 
@@ -18,6 +14,10 @@ import java.awt.*;
  * User: berkel
  * Date: 15.10.11
  * Time: 18:46
+ *
+ * Include path in a template. The included file is resolved when asked for, through the include path cache,
+ * so a range costs its offsets, flags and a reference to a path shared with the other ranges of the document.
+ * Includes which did not resolve when parsed are kept too, unhighlighted, so a file appearing later can light them up.
  */
 public class IncludeLinkTextRange {
 
@@ -25,38 +25,59 @@ public class IncludeLinkTextRange {
 
 	public static TextAttributes INCLUDE_ATTRIBUTES = TextAttributes.merge(DEFAULT_COMMENT_ATTRIBUTES, new TextAttributes(null, null, DEFAULT_COMMENT_ATTRIBUTES.getForegroundColor(), EffectType.LINE_UNDERSCORE, Font.BOLD));
 
+	public static final TextAttributes CYCLE_ATTRIBUTES = new TextAttributes(null, null, Color.RED, EffectType.WAVE_UNDERSCORE, Font.PLAIN);
+
 	private static final Logger LOG = Logger.getInstance(IncludeLinkTextRange.class.getName());
 
-	private final Project project;
 	private final PsiFile file;
-	private final VirtualFile virtualFile;
 	private int startOffset;
 	private int endOffset;
 	private final String fileRelativePath;
 	private boolean active;
-	private int hash = 0;
-	private RangeHighlighter rangeHighlighter = null;
+	private boolean resolved;
+	// given by IncludeLinkRangeStore, 0 while the range is not stored
+	private int id = 0;
+
+	public IncludeLinkTextRange(final PsiFile file, final int startOffset, final int endOffset, @NotNull final String fileRelativePath, final boolean isActive) {
+		this(file, startOffset, endOffset, fileRelativePath, isActive, true, 0);
+	}
 
-	private static final Key<IncludeLinkTextRange> INCLUDE_LINK_HIGHLIGHTER_KEY = Key.create("IncludeLinkHighlighter");
+	public IncludeLinkTextRange(final PsiFile file, final int startOffset, final int endOffset, @NotNull final String fileRelativePath, final boolean isActive, final boolean isResolved) {
+		this(file, startOffset, endOffset, fileRelativePath, isActive, isResolved, 0);
+	}
 
-	public IncludeLinkTextRange(@NotNull final Project project, final PsiFile file, final int startOffset, final int endOffset, final String fileRelativePath, final boolean isActive) {
-		this.project = project;
+	IncludeLinkTextRange(final PsiFile file, final int startOffset, final int endOffset, @NotNull final String fileRelativePath, final boolean isActive, final boolean isResolved, final int id) {
 		this.startOffset = startOffset;
 		this.endOffset = endOffset;
 		this.fileRelativePath = fileRelativePath;
 		this.active = isActive;
+		this.resolved = isResolved;
 		this.file = file;
-		this.virtualFile = FileUtil.findVirtualFileByPsiFile(file, fileRelativePath);
+		this.id = id;
 	}
 
 	public VirtualFile getVirtualFile() {
-		return virtualFile;
+		return EditorIncludeLinkParser.resolveIncludedFile(file, fileRelativePath);
 	}
 
 	public String getFilePath() {
+		VirtualFile virtualFile = getVirtualFile();
 		return virtualFile != null && virtualFile.isValid() ? virtualFile.getPath() : null;
 	}
 
+	@NotNull
+	public String getFilePathAsWritten() {
+		return fileRelativePath;
+	}
+
+	int getId() {
+		return id;
+	}
+
+	void setId(final int id) {
+		this.id = id;
+	}
+
 	public int getStartOffset() {
 		return startOffset;
 	}
@@ -73,31 +94,27 @@ public class IncludeLinkTextRange {
 		return active;
 	}
 
-	public void addLinkHighlighter(final Editor editor) {
-		MarkupModel markupModel = editor.getMarkupModel();
-		if (rangeHighlighter != null) {
-			markupModel.removeHighlighter(rangeHighlighter);
-		}
-		rangeHighlighter = markupModel.addRangeHighlighter(this.getStartOffset(), this.getEndOffset(), HighlighterLayer.WARNING - 1, INCLUDE_ATTRIBUTES, HighlighterTargetArea.EXACT_RANGE);
-		rangeHighlighter.putUserData(INCLUDE_LINK_HIGHLIGHTER_KEY, this);
+	public void setResolved(final boolean resolved) {
+		this.resolved = resolved;
 	}
 
-	public void removeLinkHighlighter(final Editor editor) {
-		MarkupModel markupModel = editor.getMarkupModel();
-		if (rangeHighlighter != null) {
-			markupModel.removeHighlighter(rangeHighlighter);
-			rangeHighlighter = null;
-		}
+	/**
+	 * Whether the include resolved when it was last parsed or revalidated.
+	 */
+	public boolean isResolved() {
+		return resolved;
 	}
 
-	public static IncludeLinkTextRange getFrom(final RangeHighlighter rangeHighlighter) {
-		return rangeHighlighter.getUserData(INCLUDE_LINK_HIGHLIGHTER_KEY);
+	/**
+	 * Highlighted are includes inside a comment which resolve.
+	 */
+	public boolean isShown() {
+		return active && resolved;
 	}
 
 	public void shift(final int shiftOffset) {
 		startOffset += shiftOffset;
 		endOffset += shiftOffset;
-		hash += 2 * shiftOffset;
 	}
 
 	public boolean equals(final Object o) {
@@ -123,14 +140,14 @@ public class IncludeLinkTextRange {
 		return true;
 	}
 
+	/**
+	 * Computed from the current offsets, so it stays consistent with equals after a shift.
+	 * String caches its own hash, so this is cheap.
+	 */
 	public int hashCode() {
-		int result;
-		if (hash == 0) {
-			result = startOffset;
-			result = 31 * result + endOffset;
-			result = 31 * result + fileRelativePath.hashCode();
-			hash = result;
-		}
-		return hash;
+		int result = startOffset;
+		result = 31 * result + endOffset;
+		result = 31 * result + fileRelativePath.hashCode();
+		return result;
 	}
 }
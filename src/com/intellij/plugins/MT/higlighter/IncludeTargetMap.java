@@ -0,0 +1,80 @@
+package com.intellij.plugins.MT.higlighter;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 10:40
+ *
+ * Reverse map from the path an include resolves to (whether a file is there or not) to the highlighters
+ * of open documents holding such includes, and the paths as they are written there. Sorted, so an event on
+ * a directory finds every target below it. Entries are only added while a document stays open, a stale one
+ * costs a needless revalidation at worst. EDT only.
+ */
+final class IncludeTargetMap {
+	private final TreeMap<String, Map<IncludeLinkHighlighter, Set<String>>> includes = new TreeMap<String, Map<IncludeLinkHighlighter, Set<String>>>();
+
+	public void add(@NotNull final String targetPath, @NotNull final IncludeLinkHighlighter highlighter, @NotNull final String writtenPath) {
+		Map<IncludeLinkHighlighter, Set<String>> highlighters = includes.get(targetPath);
+		if (highlighters == null) {
+			highlighters = new HashMap<IncludeLinkHighlighter, Set<String>>(2);
+			includes.put(targetPath, highlighters);
+		}
+		Set<String> writtenPaths = highlighters.get(highlighter);
+		if (writtenPaths == null) {
+			writtenPaths = new HashSet<String>(2);
+			highlighters.put(highlighter, writtenPaths);
+		}
+		writtenPaths.add(writtenPath);
+	}
+
+	public void removeAll(@NotNull final IncludeLinkHighlighter highlighter) {
+		for (Iterator<Map<IncludeLinkHighlighter, Set<String>>> it = includes.values().iterator(); it.hasNext(); ) {
+			Map<IncludeLinkHighlighter, Set<String>> highlighters = it.next();
+			if (highlighters.remove(highlighter) != null && highlighters.isEmpty()) {
+				it.remove();
+			}
+		}
+	}
+
+	public boolean isEmpty() {
+		return includes.isEmpty();
+	}
+
+	/**
+	 * Adds the includes resolving to <code>path</code>, or to anything below it, to <code>affected</code>.
+	 */
+	public void collect(@NotNull final String path, @NotNull final Map<IncludeLinkHighlighter, Set<String>> affected) {
+		add(includes.get(path), affected);
+		String prefix = path.endsWith("/") ? path : path + "/";
+		// '/' + 1 is '0', so the sub map holds exactly the paths starting with the prefix
+		SortedMap<String, Map<IncludeLinkHighlighter, Set<String>>> below = includes.subMap(prefix, prefix.substring(0, prefix.length() - 1) + '0');
+		for (Map<IncludeLinkHighlighter, Set<String>> highlighters : below.values()) {
+			add(highlighters, affected);
+		}
+	}
+
+	private static void add(final Map<IncludeLinkHighlighter, Set<String>> highlighters, final Map<IncludeLinkHighlighter, Set<String>> affected) {
+		if (highlighters == null) {
+			return;
+		}
+		for (Map.Entry<IncludeLinkHighlighter, Set<String>> entry : highlighters.entrySet()) {
+			Set<String> writtenPaths = affected.get(entry.getKey());
+			if (writtenPaths == null) {
+				writtenPaths = new HashSet<String>();
+				affected.put(entry.getKey(), writtenPaths);
+			}
+			writtenPaths.addAll(entry.getValue());
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.codeHighlighting.Pass;
+import com.intellij.codeInsight.daemon.GutterIconNavigationHandler;
+import com.intellij.codeInsight.daemon.LineMarkerInfo;
+import com.intellij.codeInsight.daemon.LineMarkerProvider;
+import com.intellij.codeInsight.daemon.impl.PsiElementListNavigator;
+import com.intellij.ide.util.DefaultPsiElementCellRenderer;
+import com.intellij.openapi.util.IconLoader;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.index.MTIncludeIndex;
+import com.intellij.plugins.MT.references.IncludeReferencesSearcher;
+import com.intellij.psi.NavigatablePsiElement;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.Function;
+
+import javax.swing.*;
+import java.awt.event.MouseEvent;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 20:45
+ *
+ * Gutter icon on the first line of a template included by other templates, navigating to them.
+ * Includers are the ones Find Usages finds, see {@link IncludeReferencesSearcher#findReferences(PsiFile, GlobalSearchScope)}.
+ */
+public class IncludedByLineMarkerProvider implements LineMarkerProvider {
+	private static final Icon INCLUDED_BY_ICON = IconLoader.getIcon("/gutter/implementedMethod.png");
+
+	public LineMarkerInfo getLineMarkerInfo(final PsiElement element) {
+		return null;
+	}
+
+	public void collectSlowLineMarkers(final List<PsiElement> elements, final Collection<LineMarkerInfo> result) {
+		for (PsiElement element : elements) {
+			// the first leaf of the file carries the marker
+			if (element.getTextRange().getStartOffset() != 0 || element.getFirstChild() != null) {
+				continue;
+			}
+			PsiFile file = element.getContainingFile();
+			VirtualFile virtualFile = file != null ? file.getVirtualFile() : null;
+			if (virtualFile == null || !MTIncludeIndex.isTemplate(virtualFile)) {
+				continue;
+			}
+
+			final int count = findIncludingFiles(file).size();
+			if (count > 0) {
+				result.add(new LineMarkerInfo<PsiElement>(element, 0, INCLUDED_BY_ICON, Pass.UPDATE_OVERRIDEN_MARKERS,
+						new Function<PsiElement, String>() {
+							public String fun(final PsiElement psiElement) {
+								return count == 1 ? "Included by 1 template" : "Included by " + count + " templates";
+							}
+						},
+						new GutterIconNavigationHandler<PsiElement>() {
+							public void navigate(final MouseEvent e, final PsiElement elt) {
+								navigateToIncludingFiles(e, elt);
+							}
+						}));
+			}
+		}
+	}
+
+	private static void navigateToIncludingFiles(final MouseEvent e, final PsiElement element) {
+		PsiFile file = element.getContainingFile();
+		if (file == null) {
+			return;
+		}
+
+		Set<PsiFile> targets = findIncludingFiles(file);
+		PsiElementListNavigator.openTargets(e, targets.toArray(new NavigatablePsiElement[targets.size()]),
+				"Templates including " + file.getName(), new DefaultPsiElementCellRenderer());
+	}
+
+	/**
+	 * Templates holding a reference to <code>file</code>, each once.
+	 */
+	private static Set<PsiFile> findIncludingFiles(final PsiFile file) {
+		Set<PsiFile> includingFiles = new LinkedHashSet<PsiFile>();
+		for (PsiReference reference : IncludeReferencesSearcher.findReferences(file, GlobalSearchScope.allScope(file.getProject()))) {
+			PsiFile includingFile = reference.getElement().getContainingFile();
+			if (includingFile != null) {
+				includingFiles.add(includingFile);
+			}
+		}
+		return includingFiles;
+	}
+}
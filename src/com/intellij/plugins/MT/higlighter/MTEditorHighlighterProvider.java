@@ -0,0 +1,58 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.ex.EditorEx;
+import com.intellij.openapi.editor.ex.util.LayerDescriptor;
+import com.intellij.openapi.editor.ex.util.LayeredLexerEditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighter;
+import com.intellij.openapi.editor.highlighter.EditorHighlighterFactory;
+import com.intellij.openapi.fileTypes.EditorHighlighterProvider;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.xml.XmlTokenType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:55
+ *
+ * Editor highlighter of MT templates: the HTML one with {@link MTSyntaxHighlighter} layered over comment bodies.
+ * The editor highlighter relexes only the damaged part of the document after an edit, and the MT layer only
+ * the comments within it. Other HTML files get the plain HTML highlighter.
+ */
+public class MTEditorHighlighterProvider implements EditorHighlighterProvider {
+	public EditorHighlighter getEditorHighlighter(@Nullable final Project project, final FileType fileType,
+	                                              @Nullable final VirtualFile virtualFile, final EditorColorsScheme colors) {
+		SyntaxHighlighter htmlHighlighter = SyntaxHighlighterFactory.getSyntaxHighlighter(fileType, project, virtualFile);
+		if (virtualFile == null || !MTFileSniffer.isTemplate(virtualFile)) {
+			return EditorHighlighterFactory.getInstance().createEditorHighlighter(htmlHighlighter, colors);
+		}
+
+		LayeredLexerEditorHighlighter highlighter = new TemplateHighlighter(htmlHighlighter, colors);
+		highlighter.registerLayer(XmlTokenType.XML_COMMENT_CHARACTERS, new LayerDescriptor(new MTSyntaxHighlighter(), ""));
+		return highlighter;
+	}
+
+	/**
+	 * Gives the MT layer to an editor opened before its file became a template.
+	 */
+	public static void ensureTemplateHighlighter(@NotNull final Project project, @NotNull final Editor editor, @NotNull final VirtualFile file) {
+		if (editor instanceof EditorEx && !(((EditorEx) editor).getHighlighter() instanceof TemplateHighlighter)) {
+			((EditorEx) editor).setHighlighter(EditorHighlighterFactory.getInstance().createEditorHighlighter(project, file));
+		}
+	}
+
+	private static final class TemplateHighlighter extends LayeredLexerEditorHighlighter {
+		private TemplateHighlighter(final SyntaxHighlighter highlighter, final EditorColorsScheme scheme) {
+			super(highlighter, scheme);
+		}
+	}
+}
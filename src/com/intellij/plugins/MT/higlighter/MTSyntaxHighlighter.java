@@ -0,0 +1,49 @@
+package com.intellij.plugins.MT.higlighter;
+
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.editor.HighlighterColors;
+import com.intellij.openapi.editor.SyntaxHighlighterColors;
+import com.intellij.openapi.editor.XmlHighlighterColors;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterBase;
+import com.intellij.plugins.MT.parser.MTLexer;
+import com.intellij.plugins.MT.parser.MTTokenTypes;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:55
+ *
+ * Colours of MT directive tokens inside HTML comments. Text which is no directive keeps the HTML comment colour.
+ */
+public class MTSyntaxHighlighter extends SyntaxHighlighterBase {
+	public static final TextAttributesKey KEYWORD = TextAttributesKey.createTextAttributesKey("MT.KEYWORD", SyntaxHighlighterColors.KEYWORD.getDefaultAttributes());
+	public static final TextAttributesKey INCLUDE_PATH = TextAttributesKey.createTextAttributesKey("MT.INCLUDE_PATH", SyntaxHighlighterColors.STRING.getDefaultAttributes());
+	public static final TextAttributesKey ARGUMENT = TextAttributesKey.createTextAttributesKey("MT.ARGUMENT", HighlighterColors.TEXT.getDefaultAttributes());
+
+	private static final Map<IElementType, TextAttributesKey> ATTRIBUTES = new HashMap<IElementType, TextAttributesKey>();
+
+	static {
+		ATTRIBUTES.put(MTTokenTypes.KEYWORD, KEYWORD);
+		ATTRIBUTES.put(MTTokenTypes.INCLUDE_PATH, INCLUDE_PATH);
+		ATTRIBUTES.put(MTTokenTypes.ARGUMENT, ARGUMENT);
+		ATTRIBUTES.put(MTTokenTypes.WHITE_SPACE, XmlHighlighterColors.HTML_COMMENT);
+		ATTRIBUTES.put(MTTokenTypes.COMMENT_TEXT, XmlHighlighterColors.HTML_COMMENT);
+	}
+
+	@NotNull
+	public Lexer getHighlightingLexer() {
+		return new MTLexer();
+	}
+
+	@NotNull
+	public TextAttributesKey[] getTokenHighlights(final IElementType tokenType) {
+		return pack(ATTRIBUTES.get(tokenType));
+	}
+}
@@ -0,0 +1,412 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 21:10
+ *
+ * Strongly connected components of the include graph, found on demand and kept up to date file by file.
+ * A template is in an include cycle iff its component has more than one template or it includes itself.
+ * The component of a template is found by walking what it includes, edges come from {@link MTIncludeIndex}.
+ * Changing the includes of one template can only split or merge the component holding it, so a change
+ * walks from the changed template again; other components are left as they are.
+ * Walks read the index, so they run on a pooled thread in a read action and only when indexing is over.
+ * Until the walk of a template is done it is not known to be in a cycle, listeners are told when it is.
+ * File changes come in batches from {@link TemplateChangeBatcher}.
+ * A project service, created by the first open template. EDT only, but for the walks.
+ */
+public class IncludeCycleDetector implements Disposable {
+	private static final Logger LOG = Logger.getInstance(IncludeCycleDetector.class.getName());
+
+	public interface Listener {
+		/**
+		 * Called after templates entered or left an include cycle, or their components became known.
+		 */
+		void cyclesChanged();
+	}
+
+	private final Project project;
+	private final TemplateChangeBatcher changeBatcher;
+	// included templates of every template walked so far
+	private final Map<VirtualFile, Set<VirtualFile>> successors = new HashMap<VirtualFile, Set<VirtualFile>>();
+	// component of every template whose component is known, shared by all its members
+	private final Map<VirtualFile, Set<VirtualFile>> components = new HashMap<VirtualFile, Set<VirtualFile>>();
+	// walked templates whose includes changed since, the next walk reads them again
+	private final Set<VirtualFile> staleSuccessors = new HashSet<VirtualFile>();
+	// templates to walk from
+	private final Set<VirtualFile> pending = new LinkedHashSet<VirtualFile>();
+	// a walk is scheduled or running, the next one starts when its result is in
+	private boolean walkScheduled = false;
+	// bumped whenever known includes are dropped, a walk started before gives up its result
+	private int generation = 0;
+	private final List<Listener> listeners = new ArrayList<Listener>();
+	private final TemplateChangeBatcher.Listener changeListener = new TemplateChangeBatcher.Listener() {
+		public void templatesChanged(@NotNull final Set<String> changedPaths, @NotNull final Set<VirtualFile> changedTemplates, final boolean directoriesChanged) {
+			if (directoriesChanged) {
+				reset();
+			} else {
+				filesChanged(changedTemplates);
+			}
+		}
+	};
+
+	public IncludeCycleDetector(Project project) {
+		this.project = project;
+		this.changeBatcher = TemplateChangeBatcher.getInstance(project);
+		changeBatcher.addListener(changeListener);
+	}
+
+	public static IncludeCycleDetector getInstance(@NotNull final Project project) {
+		return ServiceManager.getService(project, IncludeCycleDetector.class);
+	}
+
+	public void dispose() {
+		changeBatcher.removeListener(changeListener);
+		successors.clear();
+		components.clear();
+		staleSuccessors.clear();
+		pending.clear();
+	}
+
+	public void addListener(@NotNull final Listener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(@NotNull final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Returns false while the component of <code>file</code> is not known yet, and starts finding it.
+	 */
+	public boolean isInCycle(@NotNull final VirtualFile file) {
+		Set<VirtualFile> component = components.get(file);
+		if (component == null) {
+			requestWalk(file);
+			return false;
+		}
+		return isCycle(component);
+	}
+
+	/**
+	 * Returns true if the include of <code>to</code> by <code>from</code> closes a cycle. Returns false while
+	 * the component of <code>from</code> is not known yet, and starts finding it.
+	 */
+	public boolean isCycleEdge(@NotNull final VirtualFile from, @NotNull final VirtualFile to) {
+		Set<VirtualFile> component = components.get(from);
+		if (component == null) {
+			requestWalk(from);
+			return false;
+		}
+		return component.contains(to) && isCycle(component);
+	}
+
+	/**
+	 * Rereads the includes of <code>file</code> and updates the component holding it.
+	 */
+	public void fileChanged(@NotNull final VirtualFile file) {
+		filesChanged(Collections.singleton(file));
+	}
+
+	/**
+	 * Like {@link #fileChanged(VirtualFile)} for several files, all of them are walked again together.
+	 * What is known stays in use until the walk is done.
+	 */
+	public void filesChanged(@NotNull final Collection<VirtualFile> files) {
+		boolean changed = false;
+		for (VirtualFile file : files) {
+			// never walked ones have nothing known depending on them
+			if (file.isValid() && (successors.containsKey(file) || components.containsKey(file))) {
+				staleSuccessors.add(file);
+				requestWalk(file);
+				changed = true;
+			}
+		}
+		if (changed) {
+			generation++;
+		}
+	}
+
+	private void reset() {
+		boolean hadCycles = false;
+		for (Set<VirtualFile> component : components.values()) {
+			hadCycles |= isCycle(component);
+		}
+		successors.clear();
+		components.clear();
+		staleSuccessors.clear();
+		generation++;
+		if (hadCycles) {
+			fireCyclesChanged();
+		}
+	}
+
+	/**
+	 * Listeners are told once indexing is over, when the walks their questions start can run.
+	 */
+	private void fireCyclesChanged() {
+		DumbService.getInstance(project).runWhenSmart(new Runnable() {
+			public void run() {
+				if (project.isDisposed()) {
+					return;
+				}
+				for (Listener listener : listeners.toArray(new Listener[listeners.size()])) {
+					listener.cyclesChanged();
+				}
+			}
+		});
+	}
+
+	private void requestWalk(@NotNull final VirtualFile file) {
+		if (pending.add(file) && !walkScheduled) {
+			walkScheduled = true;
+			// questions asked in one event dispatch thread pass are walked together
+			ApplicationManager.getApplication().invokeLater(new Runnable() {
+				public void run() {
+					startWalk();
+				}
+			});
+		}
+	}
+
+	private void startWalk() {
+		if (project.isDisposed() || pending.isEmpty()) {
+			walkScheduled = false;
+			return;
+		}
+
+		final List<VirtualFile> files = new ArrayList<VirtualFile>(pending);
+		pending.clear();
+		final Map<VirtualFile, Set<VirtualFile>> known = new HashMap<VirtualFile, Set<VirtualFile>>(successors);
+		known.keySet().removeAll(staleSuccessors);
+		final int walkGeneration = generation;
+
+		final Application application = ApplicationManager.getApplication();
+		application.executeOnPooledThread(new Runnable() {
+			public void run() {
+				final Walk walk = application.runReadAction(new Computable<Walk>() {
+					public Walk compute() {
+						if (project.isDisposed() || DumbService.getInstance(project).isDumb()) {
+							return null;
+						}
+						try {
+							Walk walk = new Walk(known);
+							for (VirtualFile file : files) {
+								if (file.isValid()) {
+									walk.findComponent(file);
+								}
+							}
+							return walk;
+						} catch (IndexNotReadyException e) {
+							return null;
+						}
+					}
+				});
+
+				application.invokeLater(new Runnable() {
+					public void run() {
+						walkDone(files, walkGeneration, walk);
+					}
+				});
+			}
+		});
+	}
+
+	private void walkDone(@NotNull final List<VirtualFile> files, final int walkGeneration, final Walk walk) {
+		walkScheduled = false;
+		if (project.isDisposed()) {
+			return;
+		}
+		if (walk == null) {
+			// indexing, walked again once it is over
+			pending.addAll(files);
+			DumbService.getInstance(project).runWhenSmart(new Runnable() {
+				public void run() {
+					restartWalk();
+				}
+			});
+			return;
+		}
+		if (walkGeneration != generation) {
+			// includes changed meanwhile, what the walk read may be outdated
+			pending.addAll(files);
+			restartWalk();
+			return;
+		}
+
+		// cycle state before, the self include check of a single template needs the includes known then
+		Map<Set<VirtualFile>, Boolean> wasCycle = new IdentityHashMap<Set<VirtualFile>, Boolean>();
+		for (Set<VirtualFile> component : walk.getComponents()) {
+			boolean cycle = false;
+			for (VirtualFile member : component) {
+				Set<VirtualFile> oldComponent = components.get(member);
+				cycle |= oldComponent != null && isCycle(oldComponent);
+			}
+			wasCycle.put(component, cycle);
+		}
+
+		successors.putAll(walk.read);
+		staleSuccessors.removeAll(walk.read.keySet());
+
+		boolean cyclesChanged = false;
+		for (Set<VirtualFile> component : walk.getComponents()) {
+			for (VirtualFile member : component) {
+				Set<VirtualFile> oldComponent = components.get(member);
+				if (oldComponent != null && oldComponent != component) {
+					// members which may have split off keep the old answer until they are walked again
+					for (VirtualFile oldMember : oldComponent) {
+						if (!component.contains(oldMember) && components.get(oldMember) == oldComponent) {
+							requestWalk(oldMember);
+						}
+					}
+				}
+			}
+			for (VirtualFile member : component) {
+				components.put(member, component);
+			}
+			boolean cycle = isCycle(component);
+			cyclesChanged |= cycle || wasCycle.get(component);
+			if (component.size() > 1) {
+				LOG.debug("Include cycle through " + component.size() + " templates at " + component.iterator().next().getPath());
+			}
+		}
+		if (cyclesChanged) {
+			fireCyclesChanged();
+		}
+		restartWalk();
+	}
+
+	private void restartWalk() {
+		if (!walkScheduled && !pending.isEmpty()) {
+			walkScheduled = true;
+			startWalk();
+		}
+	}
+
+	private boolean isCycle(@NotNull final Set<VirtualFile> component) {
+		if (component.size() > 1) {
+			return true;
+		}
+		VirtualFile file = component.iterator().next();
+		Set<VirtualFile> fileSuccessors = successors.get(file);
+		return fileSuccessors != null && fileSuccessors.contains(file);
+	}
+
+	@NotNull
+	private Set<VirtualFile> readSuccessors(@NotNull final VirtualFile file) {
+		return file.isValid() ? MTIncludeIndex.getIncludedFiles(project, file) : Collections.<VirtualFile>emptySet();
+	}
+
+	/**
+	 * Component finding on a pooled thread, under a read action. Touches nothing of the detector but
+	 * the includes copied for it, what it reads from the index is merged on the event dispatch thread.
+	 */
+	private final class Walk {
+		private final Map<VirtualFile, Set<VirtualFile>> known;
+		private final Map<VirtualFile, Set<VirtualFile>> read = new HashMap<VirtualFile, Set<VirtualFile>>();
+		private final Map<VirtualFile, Set<VirtualFile>> found = new HashMap<VirtualFile, Set<VirtualFile>>();
+
+		private Walk(@NotNull final Map<VirtualFile, Set<VirtualFile>> known) {
+			this.known = known;
+		}
+
+		/**
+		 * Distinct components found.
+		 */
+		private Collection<Set<VirtualFile>> getComponents() {
+			Map<Set<VirtualFile>, Boolean> distinct = new IdentityHashMap<Set<VirtualFile>, Boolean>();
+			for (Set<VirtualFile> component : found.values()) {
+				distinct.put(component, Boolean.TRUE);
+			}
+			return distinct.keySet();
+		}
+
+		/**
+		 * Finds the component of <code>file</code>: the templates reachable from it which reach it back.
+		 */
+		private void findComponent(@NotNull final VirtualFile file) {
+			if (found.containsKey(file)) {
+				return;
+			}
+
+			// forward walk, remembering the reversed edges inside the reachable part
+			Map<VirtualFile, List<VirtualFile>> predecessors = new HashMap<VirtualFile, List<VirtualFile>>();
+			Set<VirtualFile> reachable = new HashSet<VirtualFile>();
+			List<VirtualFile> stack = new ArrayList<VirtualFile>();
+			reachable.add(file);
+			stack.add(file);
+			while (!stack.isEmpty()) {
+				VirtualFile current = stack.remove(stack.size() - 1);
+				for (VirtualFile next : getSuccessors(current)) {
+					List<VirtualFile> nextPredecessors = predecessors.get(next);
+					if (nextPredecessors == null) {
+						nextPredecessors = new ArrayList<VirtualFile>(1);
+						predecessors.put(next, nextPredecessors);
+					}
+					nextPredecessors.add(current);
+					if (reachable.add(next)) {
+						stack.add(next);
+					}
+				}
+			}
+
+			// backward walk from file over those edges
+			Set<VirtualFile> component = new HashSet<VirtualFile>();
+			component.add(file);
+			stack.add(file);
+			while (!stack.isEmpty()) {
+				List<VirtualFile> currentPredecessors = predecessors.get(stack.remove(stack.size() - 1));
+				if (currentPredecessors == null) {
+					continue;
+				}
+				for (VirtualFile previous : currentPredecessors) {
+					if (component.add(previous)) {
+						stack.add(previous);
+					}
+				}
+			}
+
+			component = Collections.unmodifiableSet(component);
+			for (VirtualFile member : component) {
+				found.put(member, component);
+			}
+		}
+
+		@NotNull
+		private Set<VirtualFile> getSuccessors(@NotNull final VirtualFile file) {
+			Set<VirtualFile> result = known.get(file);
+			if (result == null) {
+				result = read.get(file);
+			}
+			if (result == null) {
+				result = readSuccessors(file);
+				read.put(file, result);
+			}
+			return result;
+		}
+	}
+}
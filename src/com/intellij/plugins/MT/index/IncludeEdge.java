@@ -0,0 +1,54 @@
+package com.intellij.plugins.MT.index;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 19:30
+ *
+ * INCLUDE directive of a template as stored in the index: the path as written and its offset in the template.
+ */
+public final class IncludeEdge {
+	private final String path;
+	private final int offset;
+
+	public IncludeEdge(@NotNull final String path, final int offset) {
+		this.path = path;
+		this.offset = offset;
+	}
+
+	@NotNull
+	public String getPath() {
+		return path;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getEndOffset() {
+		return offset + path.length();
+	}
+
+	public boolean equals(final Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof IncludeEdge)) {
+			return false;
+		}
+
+		final IncludeEdge that = (IncludeEdge) o;
+		return offset == that.offset && path.equals(that.path);
+	}
+
+	public int hashCode() {
+		return 31 * path.hashCode() + offset;
+	}
+
+	public String toString() {
+		return path + "@" + offset;
+	}
+}
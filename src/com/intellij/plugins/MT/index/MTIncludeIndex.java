@@ -0,0 +1,194 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileWithId;
+import com.intellij.plugins.MT.parser.CommentCursor;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorIntegerDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 19:35
+ *
+ * Persistent index of the INCLUDE directives of every template, keyed by the id of the including file.
+ * Ids survive renames and moves, and paths are kept as written, so only a content change reindexes a template.
+ * Directives are found with the scanner the editor highlighter uses, and like everywhere else only the ones
+ * inside HTML comments count; {@link CommentCursor} tells them apart, as no lexer runs while indexing.
+ */
+public class MTIncludeIndex implements FileBasedIndexExtension<Integer, List<IncludeEdge>> {
+	public static final ID<Integer, List<IncludeEdge>> NAME = ID.create("MTIncludeIndex");
+
+	// 2: includes outside comments are left out
+	private static final int VERSION = 2;
+	private static final MTDirectiveScanner INCLUDE_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+
+	private final DataIndexer<Integer, List<IncludeEdge>, FileContent> indexer = new DataIndexer<Integer, List<IncludeEdge>, FileContent>() {
+		@NotNull
+		public Map<Integer, List<IncludeEdge>> map(final FileContent inputData) {
+			VirtualFile file = inputData.getFile();
+			if (!(file instanceof VirtualFileWithId)) {
+				return Collections.emptyMap();
+			}
+
+			List<IncludeEdge> edges = findIncludes(inputData.getContentAsText());
+			if (edges.isEmpty()) {
+				return Collections.emptyMap();
+			}
+			return Collections.singletonMap(((VirtualFileWithId) file).getId(), edges);
+		}
+	};
+
+	static final DataExternalizer<List<IncludeEdge>> EDGES_EXTERNALIZER = new DataExternalizer<List<IncludeEdge>>() {
+		public void save(final DataOutput out, final List<IncludeEdge> value) throws IOException {
+			out.writeInt(value.size());
+			for (IncludeEdge edge : value) {
+				out.writeUTF(edge.getPath());
+				out.writeInt(edge.getOffset());
+			}
+		}
+
+		public List<IncludeEdge> read(final DataInput in) throws IOException {
+			int size = in.readInt();
+			List<IncludeEdge> edges = new ArrayList<IncludeEdge>(size);
+			for (int i = 0; i < size; i++) {
+				String path = in.readUTF();
+				edges.add(new IncludeEdge(path, in.readInt()));
+			}
+			return edges;
+		}
+	};
+
+	private final FileBasedIndex.InputFilter inputFilter = new FileBasedIndex.InputFilter() {
+		public boolean acceptInput(final VirtualFile file) {
+			return isTemplate(file);
+		}
+	};
+
+	public ID<Integer, List<IncludeEdge>> getName() {
+		return NAME;
+	}
+
+	public DataIndexer<Integer, List<IncludeEdge>, FileContent> getIndexer() {
+		return indexer;
+	}
+
+	public KeyDescriptor<Integer> getKeyDescriptor() {
+		return EnumeratorIntegerDescriptor.INSTANCE;
+	}
+
+	public DataExternalizer<List<IncludeEdge>> getValueExternalizer() {
+		return EDGES_EXTERNALIZER;
+	}
+
+	public FileBasedIndex.InputFilter getInputFilter() {
+		return inputFilter;
+	}
+
+	public boolean dependsOnFileContent() {
+		return true;
+	}
+
+	public int getVersion() {
+		return VERSION;
+	}
+
+	public int getCacheSize() {
+		return DEFAULT_CACHE_SIZE;
+	}
+
+	/**
+	 * Returns the INCLUDE directives inside comments of <code>text</code>, in offset order.
+	 */
+	@NotNull
+	static List<IncludeEdge> findIncludes(@NotNull final CharSequence text) {
+		int[] paths = INCLUDE_SCANNER.findIncludePaths(text, 0, text.length());
+		if (paths.length == 0) {
+			return Collections.emptyList();
+		}
+
+		List<IncludeEdge> edges = new ArrayList<IncludeEdge>(paths.length / 2);
+		CommentCursor cursor = new CommentCursor(text);
+		for (int i = 0; i < paths.length; i += 2) {
+			if (cursor.isComment(paths[i])) {
+				edges.add(new IncludeEdge(text.subSequence(paths[i], paths[i + 1]).toString(), paths[i]));
+			}
+		}
+		return edges;
+	}
+
+	/**
+	 * Extension check only, the index filter must not read content. See {@link MTFileSniffer#isTemplate}.
+	 */
+	public static boolean isTemplate(@NotNull final VirtualFile file) {
+		return MTFileSniffer.hasTemplateExtension(file);
+	}
+
+	/**
+	 * Returns the INCLUDE directives of <code>file</code> in offset order, as of its last indexed content.
+	 */
+	@NotNull
+	public static List<IncludeEdge> getIncludes(@NotNull final Project project, @NotNull final VirtualFile file) {
+		if (!(file instanceof VirtualFileWithId)) {
+			return Collections.emptyList();
+		}
+
+		List<List<IncludeEdge>> values = FileBasedIndex.getInstance().getValues(NAME, ((VirtualFileWithId) file).getId(), GlobalSearchScope.allScope(project));
+		if (values.isEmpty()) {
+			return Collections.emptyList();
+		}
+		if (values.size() == 1) {
+			return values.get(0);
+		}
+		List<IncludeEdge> edges = new ArrayList<IncludeEdge>();
+		for (List<IncludeEdge> value : values) {
+			edges.addAll(value);
+		}
+		return edges;
+	}
+
+	/**
+	 * Returns the existing templates <code>file</code> includes, each once.
+	 */
+	@NotNull
+	public static Set<VirtualFile> getIncludedFiles(@NotNull final Project project, @NotNull final VirtualFile file) {
+		List<IncludeEdge> edges = getIncludes(project, file);
+		VirtualFile dir = file.getParent();
+		if (edges.isEmpty() || dir == null || !dir.isValid()) {
+			return Collections.emptySet();
+		}
+
+		IncludePathCache cache = IncludePathCache.getInstance(project);
+		Set<VirtualFile> files = new LinkedHashSet<VirtualFile>();
+		for (IncludeEdge edge : edges) {
+			VirtualFile included = cache != null ? cache.resolve(dir, edge.getPath()) : dir.findFileByRelativePath(edge.getPath());
+			if (included != null && included.isValid()) {
+				files.add(included);
+			}
+		}
+		return files;
+	}
+}
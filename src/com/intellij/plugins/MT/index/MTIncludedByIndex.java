@@ -0,0 +1,129 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.DataIndexer;
+import com.intellij.util.indexing.FileBasedIndex;
+import com.intellij.util.indexing.FileBasedIndexExtension;
+import com.intellij.util.indexing.FileContent;
+import com.intellij.util.indexing.ID;
+import com.intellij.util.io.DataExternalizer;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.KeyDescriptor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 20:05
+ *
+ * Reverse side of {@link MTIncludeIndex}: INCLUDE directives keyed by the name of the file they include.
+ * The name does not depend on where the including template lives, so moves reindex nothing.
+ * Directories are checked at query time, on the few templates including a file of that name.
+ */
+public class MTIncludedByIndex implements FileBasedIndexExtension<String, List<IncludeEdge>> {
+	public static final ID<String, List<IncludeEdge>> NAME = ID.create("MTIncludedByIndex");
+
+	// 2: includes outside comments are left out
+	private static final int VERSION = 2;
+
+	private final DataIndexer<String, List<IncludeEdge>, FileContent> indexer = new DataIndexer<String, List<IncludeEdge>, FileContent>() {
+		@NotNull
+		public Map<String, List<IncludeEdge>> map(final FileContent inputData) {
+			Map<String, List<IncludeEdge>> map = new HashMap<String, List<IncludeEdge>>();
+			for (IncludeEdge edge : MTIncludeIndex.findIncludes(inputData.getContentAsText())) {
+				String name = getFileName(edge.getPath());
+				List<IncludeEdge> edges = map.get(name);
+				if (edges == null) {
+					edges = new ArrayList<IncludeEdge>(1);
+					map.put(name, edges);
+				}
+				edges.add(edge);
+			}
+			return map;
+		}
+	};
+
+	private final FileBasedIndex.InputFilter inputFilter = new FileBasedIndex.InputFilter() {
+		public boolean acceptInput(final VirtualFile file) {
+			return MTIncludeIndex.isTemplate(file);
+		}
+	};
+
+	public ID<String, List<IncludeEdge>> getName() {
+		return NAME;
+	}
+
+	public DataIndexer<String, List<IncludeEdge>, FileContent> getIndexer() {
+		return indexer;
+	}
+
+	public KeyDescriptor<String> getKeyDescriptor() {
+		return new EnumeratorStringDescriptor();
+	}
+
+	public DataExternalizer<List<IncludeEdge>> getValueExternalizer() {
+		return MTIncludeIndex.EDGES_EXTERNALIZER;
+	}
+
+	public FileBasedIndex.InputFilter getInputFilter() {
+		return inputFilter;
+	}
+
+	public boolean dependsOnFileContent() {
+		return true;
+	}
+
+	public int getVersion() {
+		return VERSION;
+	}
+
+	public int getCacheSize() {
+		return DEFAULT_CACHE_SIZE;
+	}
+
+	@NotNull
+	private static String getFileName(@NotNull final String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Finds the templates including <code>target</code>, with the directives doing it, as of their last indexed content.
+	 */
+	@NotNull
+	public static Map<VirtualFile, List<IncludeEdge>> getIncludingFiles(@NotNull final Project project, @NotNull final VirtualFile target,
+	                                                                    @NotNull final GlobalSearchScope scope) {
+		final Map<VirtualFile, List<IncludeEdge>> result = new LinkedHashMap<VirtualFile, List<IncludeEdge>>();
+		final IncludePathCache cache = IncludePathCache.getInstance(project);
+		FileBasedIndex.getInstance().processValues(NAME, target.getName(), null, new FileBasedIndex.ValueProcessor<List<IncludeEdge>>() {
+			public boolean process(final VirtualFile file, final List<IncludeEdge> value) {
+				VirtualFile dir = file.getParent();
+				if (dir == null || !dir.isValid()) {
+					return true;
+				}
+				for (IncludeEdge edge : value) {
+					VirtualFile included = cache != null ? cache.resolve(dir, edge.getPath()) : dir.findFileByRelativePath(edge.getPath());
+					if (target.equals(included)) {
+						List<IncludeEdge> edges = result.get(file);
+						if (edges == null) {
+							edges = new ArrayList<IncludeEdge>(1);
+							result.put(file, edges);
+						}
+						edges.add(edge);
+					}
+				}
+				return true;
+			}
+		}, scope);
+		return result;
+	}
+}
@@ -0,0 +1,277 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.DumbService;
+import com.intellij.openapi.project.IndexNotReadyException;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.newvfs.BulkFileListener;
+import com.intellij.openapi.vfs.newvfs.events.VFileContentChangeEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCopyEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileCreateEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileDeleteEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFileMoveEvent;
+import com.intellij.openapi.vfs.newvfs.events.VFilePropertyChangeEvent;
+import com.intellij.plugins.MT.stats.MTStats;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.util.indexing.FileBasedIndex;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 11:25
+ *
+ * Collects template changes of bulk VFS events, as a branch switch or code generation changes thousands of files at once.
+ * Changes are grouped by directory and held for a short window, so a file touched by many events is handled once.
+ * The templates including changed names are looked up in the index once per batch on a single background thread,
+ * then the listeners get the whole batch on the event dispatch thread.
+ * Events seen, changes coalesced, batches and templates handed out are counted in {@link MTStats}.
+ * A project service, created by the first open template.
+ */
+public class TemplateChangeBatcher implements BulkFileListener, Disposable {
+	private static final Logger LOG = Logger.getInstance(TemplateChangeBatcher.class.getName());
+	private static final int BATCH_WINDOW = 300;
+
+	public interface Listener {
+		/**
+		 * Called on the event dispatch thread once per batch.
+		 *
+		 * @param changedPaths        paths of templates and directories which appeared, went or moved, old and new ones
+		 * @param changedTemplates    templates whose includes may resolve differently: changed or moved ones and the ones including a changed name
+		 * @param directoriesChanged  true if a directory appeared, went or moved, so any include may resolve differently
+		 */
+		void templatesChanged(@NotNull Set<String> changedPaths, @NotNull Set<VirtualFile> changedTemplates, boolean directoriesChanged);
+	}
+
+	private final Project project;
+	private final List<Listener> listeners = new ArrayList<Listener>();
+	// one thread, batches never run side by side and a storm never takes more than it
+	private final ScheduledThreadPoolExecutor executor;
+
+	// changes since the last batch, guarded by this
+	private Map<String, Set<String>> changedNamesByDirectory = new HashMap<String, Set<String>>();
+	private Set<VirtualFile> changedContents = new HashSet<VirtualFile>();
+	private boolean directoriesChanged = false;
+	private boolean batchScheduled = false;
+
+	public TemplateChangeBatcher(Project project) {
+		this.project = project;
+		this.executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread(@NotNull final Runnable runnable) {
+				Thread thread = new Thread(runnable, "MT template changes");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		project.getMessageBus().connect(this).subscribe(VirtualFileManager.VFS_CHANGES, this);
+	}
+
+	public static TemplateChangeBatcher getInstance(@NotNull final Project project) {
+		return ServiceManager.getService(project, TemplateChangeBatcher.class);
+	}
+
+	public void dispose() {
+		executor.shutdownNow();
+		synchronized (this) {
+			listeners.clear();
+		}
+	}
+
+	public synchronized void addListener(@NotNull final Listener listener) {
+		listeners.add(listener);
+	}
+
+	public synchronized void removeListener(@NotNull final Listener listener) {
+		listeners.remove(listener);
+	}
+
+	public void before(@NotNull final List<? extends VFileEvent> events) {
+	}
+
+	public void after(@NotNull final List<? extends VFileEvent> events) {
+		synchronized (this) {
+			MTStats.count(MTStats.Counter.VFS_EVENTS, events.size());
+			if (listeners.isEmpty()) {
+				return;
+			}
+			for (VFileEvent event : events) {
+				collect(event);
+			}
+			if (!batchScheduled && hasChanges()) {
+				batchScheduled = true;
+				executor.schedule(new Runnable() {
+					public void run() {
+						try {
+							processBatch();
+						} catch (RuntimeException e) {
+							// the scheduled future would swallow it
+							LOG.error(e);
+						}
+					}
+				}, BATCH_WINDOW, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private void collect(@NotNull final VFileEvent event) {
+		if (event instanceof VFileContentChangeEvent) {
+			contentChanged(((VFileContentChangeEvent) event).getFile());
+		} else if (event instanceof VFileCreateEvent) {
+			structureChanged(event.getPath(), ((VFileCreateEvent) event).isDirectory());
+		} else if (event instanceof VFileCopyEvent) {
+			VFileCopyEvent copyEvent = (VFileCopyEvent) event;
+			structureChanged(copyEvent.getNewParent().getPath() + "/" + copyEvent.getNewChildName(), copyEvent.getFile().isDirectory());
+		} else if (event instanceof VFileDeleteEvent) {
+			structureChanged(event.getPath(), ((VFileDeleteEvent) event).getFile().isDirectory());
+		} else if (event instanceof VFileMoveEvent) {
+			VFileMoveEvent moveEvent = (VFileMoveEvent) event;
+			VirtualFile file = moveEvent.getFile();
+			structureChanged(moveEvent.getOldParent().getPath() + "/" + file.getName(), file.isDirectory());
+			structureChanged(moveEvent.getNewParent().getPath() + "/" + file.getName(), file.isDirectory());
+			// its own includes are relative to where it is now
+			contentChanged(file);
+		} else if (event instanceof VFilePropertyChangeEvent) {
+			VFilePropertyChangeEvent propertyEvent = (VFilePropertyChangeEvent) event;
+			VirtualFile file = propertyEvent.getFile();
+			VirtualFile parent = file.getParent();
+			if (VirtualFile.PROP_NAME.equals(propertyEvent.getPropertyName()) && parent != null) {
+				structureChanged(parent.getPath() + "/" + propertyEvent.getOldValue(), file.isDirectory());
+				structureChanged(file.getPath(), file.isDirectory());
+			}
+		}
+	}
+
+	private void contentChanged(@NotNull final VirtualFile file) {
+		if (MTFileSniffer.hasTemplateExtension(file) && !changedContents.add(file)) {
+			MTStats.count(MTStats.Counter.VFS_CHANGES_COALESCED, 1);
+		}
+	}
+
+	private void structureChanged(@NotNull final String path, final boolean directory) {
+		int slash = path.lastIndexOf('/');
+		String name = path.substring(slash + 1);
+		if (!directory && !MTFileSniffer.hasTemplateExtension(name)) {
+			return;
+		}
+		directoriesChanged |= directory;
+		String dirPath = slash > 0 ? path.substring(0, slash) : "/";
+		Set<String> names = changedNamesByDirectory.get(dirPath);
+		if (names == null) {
+			names = new HashSet<String>();
+			changedNamesByDirectory.put(dirPath, names);
+		}
+		if (!names.add(name)) {
+			MTStats.count(MTStats.Counter.VFS_CHANGES_COALESCED, 1);
+		}
+	}
+
+	private boolean hasChanges() {
+		return !changedNamesByDirectory.isEmpty() || !changedContents.isEmpty();
+	}
+
+	private void processBatch() {
+		final Map<String, Set<String>> changedNames;
+		final Set<VirtualFile> changedTemplates;
+		final boolean directories;
+		synchronized (this) {
+			changedNames = changedNamesByDirectory;
+			changedTemplates = changedContents;
+			directories = directoriesChanged;
+			changedNamesByDirectory = new HashMap<String, Set<String>>();
+			changedContents = new HashSet<VirtualFile>();
+			directoriesChanged = false;
+			batchScheduled = false;
+		}
+		if (project.isDisposed()) {
+			return;
+		}
+
+		final Set<String> changedPaths = new HashSet<String>();
+		final Set<String> names = new HashSet<String>();
+		for (Map.Entry<String, Set<String>> entry : changedNames.entrySet()) {
+			String dirPath = entry.getKey().endsWith("/") ? entry.getKey() : entry.getKey() + "/";
+			for (String name : entry.getValue()) {
+				changedPaths.add(dirPath + name);
+				names.add(name);
+			}
+		}
+
+		// when directories changed or the index is being rebuilt listeners start over anyway
+		final boolean startOver = directories || !ApplicationManager.getApplication().runReadAction(new Computable<Boolean>() {
+			public Boolean compute() {
+				// checked under the read action, so indexing cannot start before the lookups
+				if (project.isDisposed() || DumbService.getInstance(project).isDumb()) {
+					return false;
+				}
+				try {
+					addIncluders(names, changedTemplates);
+					return true;
+				} catch (IndexNotReadyException e) {
+					return false;
+				}
+			}
+		});
+
+		MTStats.count(MTStats.Counter.CHANGE_BATCHES, 1);
+		MTStats.count(MTStats.Counter.CHANGED_TEMPLATES, changedTemplates.size());
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Template change batch: " + changedNames.size() + " directories, " + changedPaths.size() + " paths, "
+					+ changedTemplates.size() + " templates" + (startOver ? ", starting over" : ""));
+		}
+
+		ApplicationManager.getApplication().invokeLater(new Runnable() {
+			public void run() {
+				if (project.isDisposed()) {
+					return;
+				}
+				Set<String> paths = Collections.unmodifiableSet(changedPaths);
+				Set<VirtualFile> templates = Collections.unmodifiableSet(changedTemplates);
+				Listener[] currentListeners;
+				synchronized (TemplateChangeBatcher.this) {
+					currentListeners = listeners.toArray(new Listener[listeners.size()]);
+				}
+				for (Listener listener : currentListeners) {
+					listener.templatesChanged(paths, templates, startOver);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Adds the templates including any of <code>names</code>, each name is looked up once however many directories held it.
+	 */
+	private void addIncluders(@NotNull final Set<String> names, @NotNull final Set<VirtualFile> templates) {
+		GlobalSearchScope scope = GlobalSearchScope.allScope(project);
+		FileBasedIndex.ValueProcessor<List<IncludeEdge>> processor = new FileBasedIndex.ValueProcessor<List<IncludeEdge>>() {
+			public boolean process(final VirtualFile includer, final List<IncludeEdge> value) {
+				if (includer.isValid()) {
+					templates.add(includer);
+				}
+				return true;
+			}
+		};
+		for (String name : names) {
+			FileBasedIndex.getInstance().processValues(MTIncludedByIndex.NAME, name, null, processor, scope);
+		}
+	}
+}
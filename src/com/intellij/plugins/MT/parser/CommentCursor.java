@@ -0,0 +1,64 @@
+package com.intellij.plugins.MT.parser;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 08:10
+ *
+ * Walks a text forward once, telling whether ascending offsets are inside an HTML comment
+ * and which line they are on. Comments do not nest, "<!--" inside one and "-->" outside one are plain text.
+ * For places without a lexer or PSI: the include index and the command line analyzer.
+ */
+public final class CommentCursor {
+	private final CharSequence text;
+	private int position = 0;
+	private int line = 1;
+	private boolean inComment = false;
+
+	public CommentCursor(@NotNull final CharSequence text) {
+		this.text = text;
+	}
+
+	/**
+	 * Returns true if <code>offset</code> is inside a comment. Offsets must not decrease from call to call.
+	 */
+	public boolean isComment(final int offset) {
+		while (position < offset) {
+			if (!inComment && startsWith("<!--")) {
+				inComment = true;
+				position += 4;
+			} else if (inComment && startsWith("-->")) {
+				inComment = false;
+				position += 3;
+			} else {
+				if (text.charAt(position) == '\n') {
+					line++;
+				}
+				position++;
+			}
+		}
+		return inComment;
+	}
+
+	/**
+	 * Line of the offset last asked for, from 1.
+	 */
+	public int getLine() {
+		return line;
+	}
+
+	private boolean startsWith(final String delimiter) {
+		if (position + delimiter.length() > text.length()) {
+			return false;
+		}
+		for (int i = 0; i < delimiter.length(); i++) {
+			if (text.charAt(position + i) != delimiter.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,68 @@
+package com.intellij.plugins.MT.parser;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 13:05
+ */
+public final class IncludePaths {
+
+	private IncludePaths() {
+	}
+
+	/**
+	 * Joins an include path with the directory of the including template the way
+	 * VirtualFile.findFileByRelativePath walks it: leading slashes are dropped, "." and ".." are folded.
+	 *
+	 * @return '/' separated absolute path, or null if the include walks above the root
+	 */
+	@Nullable
+	public static String resolve(@NotNull final String directoryPath, @NotNull final String relativePath) {
+		List<String> names = new ArrayList<String>();
+		if (!split(directoryPath, names) || !split(relativePath, names)) {
+			return null;
+		}
+
+		StringBuilder builder = new StringBuilder(directoryPath.length() + relativePath.length() + 1);
+		if (!directoryPath.startsWith("/")) {
+			if (names.isEmpty()) {
+				return null;
+			}
+			// windows drive or other file system root, keep it as the first name
+			builder.append(names.remove(0));
+		}
+		for (String name : names) {
+			builder.append('/').append(name);
+		}
+		return builder.length() == 0 ? "/" : builder.toString();
+	}
+
+	private static boolean split(final String path, final List<String> names) {
+		int start = 0;
+		int length = path.length();
+		while (start <= length) {
+			int end = path.indexOf('/', start);
+			if (end < 0) {
+				end = length;
+			}
+			String name = path.substring(start, end);
+			if ("..".equals(name)) {
+				if (names.isEmpty()) {
+					return false;
+				}
+				names.remove(names.size() - 1);
+			} else if (name.length() > 0 && !".".equals(name)) {
+				names.add(name);
+			}
+			start = end + 1;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,268 @@
+package com.intellij.plugins.MT.parser;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 11:40
+ *
+ * Single pass scanner of MT directives over a {@link CharSequence}.
+ * Keywords are matched with an Aho-Corasick automaton compiled to a transition table, so the scan
+ * touches every character once and allocates nothing; hits are reported as offsets only.
+ * A directive is a keyword on a word boundary followed by whitespace and a non-whitespace argument.
+ */
+public final class MTDirectiveScanner {
+	public static final String INCLUDE = "INCLUDE";
+	public static final String[] INCLUDE_EXTENSIONS = new String[]{".html", ".tpl"};
+
+	private static final int ALPHABET_SIZE = 128;
+
+	private final String[] keywords;
+	// transitions[state * alphabetLength + column], state 0 is the root
+	private final int[] transitions;
+	private final int[] columns = new int[ALPHABET_SIZE];
+	private final int alphabetLength;
+	// keyword index recognised in a state, -1 if none
+	private final int[] output;
+
+	public interface DirectiveConsumer {
+		/**
+		 * Called for every directive found. Offsets are absolute offsets in the scanned text.
+		 *
+		 * @return offset the scan continues at if the directive was taken, the end of the part of the argument
+		 *         it used; -1 to continue right after the keyword
+		 */
+		int consume(int keyword, int keywordStart, int argumentStart, int argumentEnd);
+	}
+
+	public MTDirectiveScanner(@NotNull final String... keywords) {
+		this.keywords = keywords.clone();
+
+		Arrays.fill(columns, -1);
+		int column = 0;
+		int trieSize = 1;
+		for (String keyword : keywords) {
+			if (keyword.length() == 0) {
+				throw new IllegalArgumentException("Empty MT directive keyword");
+			}
+			for (int i = 0; i < keyword.length(); i++) {
+				char c = keyword.charAt(i);
+				if (c >= ALPHABET_SIZE) {
+					throw new IllegalArgumentException("MT directive keyword must be ASCII: " + keyword);
+				}
+				if (columns[c] < 0) {
+					columns[c] = column++;
+				}
+			}
+			trieSize += keyword.length();
+		}
+		alphabetLength = Math.max(column, 1);
+
+		int[] trie = new int[trieSize * alphabetLength];
+		Arrays.fill(trie, -1);
+		int[] trieOutput = new int[trieSize];
+		Arrays.fill(trieOutput, -1);
+		int states = 1;
+		for (int k = 0; k < keywords.length; k++) {
+			int state = 0;
+			String keyword = keywords[k];
+			for (int i = 0; i < keyword.length(); i++) {
+				int index = state * alphabetLength + columns[keyword.charAt(i)];
+				if (trie[index] < 0) {
+					trie[index] = states++;
+				}
+				state = trie[index];
+			}
+			trieOutput[state] = k;
+		}
+
+		// breadth first over the trie turns it into a DFA, failure links are folded into the table
+		transitions = new int[states * alphabetLength];
+		output = new int[states];
+		int[] failure = new int[states];
+		int[] queue = new int[states];
+		int head = 0;
+		int tail = 0;
+		for (int c = 0; c < alphabetLength; c++) {
+			int next = trie[c];
+			if (next > 0) {
+				transitions[c] = next;
+				failure[next] = 0;
+				queue[tail++] = next;
+			} else {
+				transitions[c] = 0;
+			}
+		}
+		System.arraycopy(trieOutput, 0, output, 0, states);
+		while (head < tail) {
+			int state = queue[head++];
+			if (output[state] < 0) {
+				output[state] = output[failure[state]];
+			}
+			for (int c = 0; c < alphabetLength; c++) {
+				int next = trie[state * alphabetLength + c];
+				if (next > 0) {
+					failure[next] = transitions[failure[state] * alphabetLength + c];
+					transitions[state * alphabetLength + c] = next;
+					queue[tail++] = next;
+				} else {
+					transitions[state * alphabetLength + c] = transitions[failure[state] * alphabetLength + c];
+				}
+			}
+		}
+	}
+
+	@NotNull
+	public String getKeyword(final int keyword) {
+		return keywords[keyword];
+	}
+
+	public int getKeywordCount() {
+		return keywords.length;
+	}
+
+	/**
+	 * Scans <code>text</code> between <code>startOffset</code> and <code>endOffset</code>.
+	 * Characters outside of the interval are only looked at to check word boundaries.
+	 */
+	public void scan(@NotNull final CharSequence text, final int startOffset, final int endOffset, @NotNull final DirectiveConsumer consumer) {
+		int state = 0;
+		int i = startOffset;
+		while (i < endOffset) {
+			char c = text.charAt(i);
+			int column = c < ALPHABET_SIZE ? columns[c] : -1;
+			state = column < 0 ? 0 : transitions[state * alphabetLength + column];
+			i++;
+
+			int keyword = output[state];
+			if (keyword < 0) {
+				continue;
+			}
+
+			int keywordStart = i - keywords[keyword].length();
+			if (keywordStart > 0 && isWordChar(text.charAt(keywordStart - 1)) || i >= endOffset || !isWhitespace(text.charAt(i))) {
+				continue;
+			}
+
+			int argumentStart = i;
+			while (argumentStart < endOffset && isWhitespace(text.charAt(argumentStart))) {
+				argumentStart++;
+			}
+			int argumentEnd = argumentStart;
+			while (argumentEnd < endOffset && !isWhitespace(text.charAt(argumentEnd))) {
+				argumentEnd++;
+			}
+			if (argumentEnd == argumentStart) {
+				continue;
+			}
+
+			int resume = consumer.consume(keyword, keywordStart, argumentStart, argumentEnd);
+			if (resume > i) {
+				i = Math.min(resume, endOffset);
+			}
+			state = 0;
+		}
+	}
+
+	/**
+	 * Finds the longest prefix of the argument which ends with one of <code>extensions</code>
+	 * on a word boundary, as "\S+\.(?:html|tpl)\b" would. Like in {@link #scan}, characters at or after
+	 * <code>endOffset</code> are not there.
+	 *
+	 * @return end offset of the path, or -1 if the argument is not such a path
+	 */
+	public static int getPathEnd(@NotNull final CharSequence text, final int argumentStart, final int argumentEnd, final int endOffset,
+								 @NotNull final String[] extensions) {
+		for (int end = argumentEnd; end > argumentStart; end--) {
+			if (end < endOffset && isWordChar(text.charAt(end))) {
+				continue;
+			}
+			for (String extension : extensions) {
+				if (end - argumentStart > extension.length() && endsWith(text, end, extension)) {
+					return end;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Collects [start, end) offset pairs of the include paths in the interval,
+	 * stored flat as {start0, end0, start1, end1, ...}.
+	 */
+	@NotNull
+	public int[] findIncludePaths(@NotNull final CharSequence text, final int startOffset, final int endOffset) {
+		final int includeKeyword = indexOf(INCLUDE);
+		if (includeKeyword < 0) {
+			return new int[0];
+		}
+
+		final int[][] found = new int[][]{new int[16]};
+		final int[] size = new int[1];
+		scan(text, startOffset, endOffset, new DirectiveConsumer() {
+			public int consume(final int keyword, final int keywordStart, final int argumentStart, final int argumentEnd) {
+				if (keyword != includeKeyword) {
+					return -1;
+				}
+				int pathEnd = getPathEnd(text, argumentStart, argumentEnd, endOffset, INCLUDE_EXTENSIONS);
+				if (pathEnd < 0) {
+					return -1;
+				}
+				if (size[0] + 2 > found[0].length) {
+					found[0] = Arrays.copyOf(found[0], found[0].length * 2);
+				}
+				found[0][size[0]++] = argumentStart;
+				found[0][size[0]++] = pathEnd;
+				// the rest of the argument may hold the next directive, as in "a.html,INCLUDE b.html"
+				return pathEnd;
+			}
+		});
+		return Arrays.copyOf(found[0], size[0]);
+	}
+
+	/**
+	 * Returns the end of the MT directive keyword starting at <code>offset</code>, i.e. of two or more
+	 * upper case letters not followed by a word character, or -1 if there is none.
+	 */
+	public static int getKeywordEnd(@NotNull final CharSequence text, final int offset, final int endOffset) {
+		int end = offset;
+		while (end < endOffset && text.charAt(end) >= 'A' && text.charAt(end) <= 'Z') {
+			end++;
+		}
+		if (end - offset < 2 || end < endOffset && isWordChar(text.charAt(end))) {
+			return -1;
+		}
+		return end;
+	}
+
+	public int indexOf(@NotNull final String keyword) {
+		for (int i = 0; i < keywords.length; i++) {
+			if (keywords[i].equals(keyword)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean endsWith(final CharSequence text, final int end, final String suffix) {
+		int start = end - suffix.length();
+		for (int i = 0; i < suffix.length(); i++) {
+			if (text.charAt(start + i) != suffix.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public static boolean isWordChar(final char c) {
+		return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '_';
+	}
+
+	public static boolean isWhitespace(final char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0B;
+	}
+}
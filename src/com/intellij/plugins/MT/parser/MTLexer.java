@@ -0,0 +1,169 @@
+package com.intellij.plugins.MT.parser;
+
+import com.intellij.lexer.LexerBase;
+import com.intellij.psi.tree.IElementType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:55
+ *
+ * Lexer of MT directives in the body of an HTML comment. A comment starting with an upper case keyword
+ * is a directive, its following words are arguments; INCLUDE takes a template path. Elsewhere in a
+ * comment only INCLUDE is recognised, as {@link MTDirectiveScanner} does, the rest is plain comment text.
+ * The state between tokens is one of the few ints below, so the lexer can be restarted at any token.
+ */
+public class MTLexer extends LexerBase {
+	public static final int INITIAL = 0;
+	private static final int INCLUDE_ARGUMENT = 1;
+	private static final int ARGUMENTS = 2;
+	private static final int TEXT = 3;
+	private static final int TEXT_INCLUDE_ARGUMENT = 4;
+
+	private CharSequence buffer;
+	private int bufferEnd;
+	private int tokenStart;
+	private int tokenEnd;
+	private int tokenState;
+	private int nextState;
+	private IElementType tokenType;
+
+	public void start(@NotNull final CharSequence buffer, final int startOffset, final int endOffset, final int initialState) {
+		this.buffer = buffer;
+		this.bufferEnd = endOffset;
+		this.tokenEnd = startOffset;
+		this.nextState = initialState;
+		advance();
+	}
+
+	public int getState() {
+		return tokenState;
+	}
+
+	public IElementType getTokenType() {
+		return tokenType;
+	}
+
+	public int getTokenStart() {
+		return tokenStart;
+	}
+
+	public int getTokenEnd() {
+		return tokenEnd;
+	}
+
+	@NotNull
+	public CharSequence getBufferSequence() {
+		return buffer;
+	}
+
+	public int getBufferEnd() {
+		return bufferEnd;
+	}
+
+	public void advance() {
+		tokenStart = tokenEnd;
+		tokenState = nextState;
+		if (tokenStart >= bufferEnd) {
+			tokenType = null;
+			return;
+		}
+
+		if (MTDirectiveScanner.isWhitespace(buffer.charAt(tokenStart))) {
+			tokenEnd = skipWhitespace(tokenStart);
+			tokenType = MTTokenTypes.WHITE_SPACE;
+			return;
+		}
+
+		switch (tokenState) {
+			case INITIAL:
+				int keywordEnd = MTDirectiveScanner.getKeywordEnd(buffer, tokenStart, bufferEnd);
+				if (keywordEnd > 0) {
+					token(MTTokenTypes.KEYWORD, keywordEnd, isInclude(tokenStart, keywordEnd) ? INCLUDE_ARGUMENT : ARGUMENTS);
+				} else {
+					lexText();
+				}
+				break;
+			case INCLUDE_ARGUMENT:
+			case TEXT_INCLUDE_ARGUMENT:
+				int afterInclude = tokenState == INCLUDE_ARGUMENT ? ARGUMENTS : TEXT;
+				int argumentEnd = skipArgument(tokenStart);
+				int pathEnd = MTDirectiveScanner.getPathEnd(buffer, tokenStart, argumentEnd, bufferEnd, MTDirectiveScanner.INCLUDE_EXTENSIONS);
+				if (pathEnd > 0) {
+					token(MTTokenTypes.INCLUDE_PATH, pathEnd, afterInclude);
+				} else if (afterInclude == TEXT) {
+					lexText();
+				} else {
+					token(MTTokenTypes.ARGUMENT, argumentEnd, ARGUMENTS);
+				}
+				break;
+			case ARGUMENTS:
+				token(MTTokenTypes.ARGUMENT, skipArgument(tokenStart), ARGUMENTS);
+				break;
+			default:
+				lexText();
+		}
+	}
+
+	/**
+	 * Comment text runs up to the next INCLUDE keyword followed by whitespace, which is a token of its own.
+	 */
+	private void lexText() {
+		int keywordLength = MTDirectiveScanner.INCLUDE.length();
+		for (int i = tokenStart; i + keywordLength < bufferEnd; i++) {
+			if (isIncludeKeywordAt(i)) {
+				if (i == tokenStart) {
+					token(MTTokenTypes.KEYWORD, i + keywordLength, TEXT_INCLUDE_ARGUMENT);
+				} else {
+					token(MTTokenTypes.COMMENT_TEXT, i, TEXT);
+				}
+				return;
+			}
+		}
+		token(MTTokenTypes.COMMENT_TEXT, bufferEnd, TEXT);
+	}
+
+	private boolean isIncludeKeywordAt(final int offset) {
+		int end = offset + MTDirectiveScanner.INCLUDE.length();
+		return end < bufferEnd && MTDirectiveScanner.isWhitespace(buffer.charAt(end))
+				&& (offset == 0 || !MTDirectiveScanner.isWordChar(buffer.charAt(offset - 1)))
+				&& isInclude(offset, end);
+	}
+
+	private boolean isInclude(final int start, final int end) {
+		String include = MTDirectiveScanner.INCLUDE;
+		if (end - start != include.length()) {
+			return false;
+		}
+		for (int i = 0; i < include.length(); i++) {
+			if (buffer.charAt(start + i) != include.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void token(final IElementType type, final int end, final int state) {
+		tokenType = type;
+		tokenEnd = end;
+		nextState = state;
+	}
+
+	private int skipWhitespace(final int offset) {
+		int end = offset;
+		while (end < bufferEnd && MTDirectiveScanner.isWhitespace(buffer.charAt(end))) {
+			end++;
+		}
+		return end;
+	}
+
+	private int skipArgument(final int offset) {
+		int end = offset;
+		while (end < bufferEnd && !MTDirectiveScanner.isWhitespace(buffer.charAt(end))) {
+			end++;
+		}
+		return end;
+	}
+}
@@ -0,0 +1,24 @@
+package com.intellij.plugins.MT.parser;
+
+import com.intellij.lang.Language;
+import com.intellij.psi.tree.IElementType;
+import com.intellij.psi.tree.TokenSet;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:55
+ *
+ * Tokens {@link MTLexer} splits the body of an HTML comment into.
+ */
+public interface MTTokenTypes {
+	IElementType KEYWORD = new IElementType("MT_KEYWORD", Language.ANY);
+	IElementType INCLUDE_PATH = new IElementType("MT_INCLUDE_PATH", Language.ANY);
+	IElementType ARGUMENT = new IElementType("MT_ARGUMENT", Language.ANY);
+	IElementType WHITE_SPACE = new IElementType("MT_WHITE_SPACE", Language.ANY);
+	IElementType COMMENT_TEXT = new IElementType("MT_COMMENT_TEXT", Language.ANY);
+
+	// all of them are still inside the HTML comment
+	TokenSet COMMENT_BODY = TokenSet.create(KEYWORD, INCLUDE_PATH, ARGUMENT, WHITE_SPACE, COMMENT_TEXT);
+}
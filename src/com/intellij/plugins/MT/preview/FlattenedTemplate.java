@@ -0,0 +1,125 @@
+package com.intellij.plugins.MT.preview;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 09:30
+ *
+ * A template with its INCLUDEs expanded transitively, plus the map from flattened offsets back to the
+ * templates the text came from. Also keeps what the expansion was made of, so {@link IncludeExpander}
+ * can tell whether it is still valid without expanding again.
+ */
+public final class FlattenedTemplate {
+	private final VirtualFile file;
+	private final long stamp;
+	private final String[] includePaths;
+	private final VirtualFile[] includeTargets;
+	private final FlattenedTemplate[] inlined;
+	private final boolean complete;
+	private final String text;
+	// segment i starts at segmentStarts[i] in the text and is the text of segmentSources[i] from segmentSourceOffsets[i]
+	private final int[] segmentStarts;
+	private final int[] segmentSourceOffsets;
+	private final VirtualFile[] segmentSources;
+
+	FlattenedTemplate(@NotNull final VirtualFile file, final long stamp, @NotNull final String[] includePaths,
+	                  @NotNull final VirtualFile[] includeTargets, @NotNull final FlattenedTemplate[] inlined, final boolean complete,
+	                  @NotNull final String text, @NotNull final int[] segmentStarts, @NotNull final int[] segmentSourceOffsets,
+	                  @NotNull final VirtualFile[] segmentSources) {
+		this.file = file;
+		this.stamp = stamp;
+		this.includePaths = includePaths;
+		this.includeTargets = includeTargets;
+		this.inlined = inlined;
+		this.complete = complete;
+		this.text = text;
+		this.segmentStarts = segmentStarts;
+		this.segmentSourceOffsets = segmentSourceOffsets;
+		this.segmentSources = segmentSources;
+	}
+
+	@NotNull
+	public VirtualFile getFile() {
+		return file;
+	}
+
+	@NotNull
+	public String getText() {
+		return text;
+	}
+
+	/**
+	 * Returns the template the character at <code>offset</code> of the flattened text comes from.
+	 */
+	@Nullable
+	public VirtualFile getSourceFile(final int offset) {
+		int segment = findSegment(offset);
+		return segment >= 0 ? segmentSources[segment] : null;
+	}
+
+	/**
+	 * Returns the offset in {@link #getSourceFile(int)} of the character at <code>offset</code>, or -1.
+	 */
+	public int getSourceOffset(final int offset) {
+		int segment = findSegment(offset);
+		return segment >= 0 ? segmentSourceOffsets[segment] + offset - segmentStarts[segment] : -1;
+	}
+
+	long getStamp() {
+		return stamp;
+	}
+
+	String[] getIncludePaths() {
+		return includePaths;
+	}
+
+	VirtualFile[] getIncludeTargets() {
+		return includeTargets;
+	}
+
+	/**
+	 * Expansions of the include targets as they were inlined, null where an include was left as written.
+	 */
+	FlattenedTemplate[] getInlined() {
+		return inlined;
+	}
+
+	/**
+	 * False if an include was cut to break a cycle; such an expansion depends on the path it was reached by.
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	int getSegmentCount() {
+		return segmentStarts.length;
+	}
+
+	int getSegmentStart(final int segment) {
+		return segmentStarts[segment];
+	}
+
+	int getSegmentSourceOffset(final int segment) {
+		return segmentSourceOffsets[segment];
+	}
+
+	VirtualFile getSegmentSource(final int segment) {
+		return segmentSources[segment];
+	}
+
+	private int findSegment(final int offset) {
+		if (offset < 0 || offset > text.length() || segmentStarts.length == 0) {
+			return -1;
+		}
+		// segments are never empty, so starts are distinct
+		int index = Arrays.binarySearch(segmentStarts, offset);
+		return index >= 0 ? index : -index - 2;
+	}
+}
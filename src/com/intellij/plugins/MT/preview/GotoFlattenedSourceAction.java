@@ -0,0 +1,43 @@
+package com.intellij.plugins.MT.preview;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.fileEditor.OpenFileDescriptor;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vfs.VirtualFile;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 09:30
+ *
+ * Jumps from the caret in a flattened template to the same character in the template it comes from.
+ */
+public class GotoFlattenedSourceAction extends AnAction {
+	public void update(final AnActionEvent e) {
+		e.getPresentation().setEnabled(e.getData(PlatformDataKeys.EDITOR) != null && getFlattened(e) != null);
+	}
+
+	public void actionPerformed(final AnActionEvent e) {
+		Project project = e.getData(PlatformDataKeys.PROJECT);
+		Editor editor = e.getData(PlatformDataKeys.EDITOR);
+		FlattenedTemplate flattened = getFlattened(e);
+		if (project == null || editor == null || flattened == null) {
+			return;
+		}
+
+		int offset = editor.getCaretModel().getOffset();
+		VirtualFile source = flattened.getSourceFile(offset);
+		if (source != null && source.isValid()) {
+			new OpenFileDescriptor(project, source, flattened.getSourceOffset(offset)).navigate(true);
+		}
+	}
+
+	private static FlattenedTemplate getFlattened(final AnActionEvent e) {
+		VirtualFile file = e.getData(PlatformDataKeys.VIRTUAL_FILE);
+		return file != null ? file.getUserData(IncludeExpander.FLATTENED_KEY) : null;
+	}
+}
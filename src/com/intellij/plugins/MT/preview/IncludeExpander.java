@@ -0,0 +1,237 @@
+package com.intellij.plugins.MT.preview;
+
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.higlighter.EditorIncludeLinkParser;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.PsiComment;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.util.containers.SoftValueHashMap;
+import gnu.trove.TIntArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 09:30
+ *
+ * Expands INCLUDEs of templates transitively. The comment holding an include is replaced by the expansion of
+ * the included template; includes which do not resolve or would close a cycle are left as written.
+ * Expansions are memoized per template. One is reused as long as its template is unchanged, its include paths
+ * resolve to the same templates and their expansions are reused in turn, so after an edit only the edited
+ * template and the ones including it on the way up are expanded again.
+ * Any thread, in a read action, with the documents of the templates committed; calls take turns.
+ */
+public class IncludeExpander {
+	public static final Key<FlattenedTemplate> FLATTENED_KEY = Key.create("MT.flattenedTemplate");
+	private static final MTDirectiveScanner INCLUDE_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+
+	private final Project project;
+	// complete expansions only, values go under memory pressure
+	private final Map<VirtualFile, FlattenedTemplate> expansions = new SoftValueHashMap<VirtualFile, FlattenedTemplate>();
+
+	public IncludeExpander(Project project) {
+		this.project = project;
+	}
+
+	public static IncludeExpander getInstance(@NotNull final Project project) {
+		return ServiceManager.getService(project, IncludeExpander.class);
+	}
+
+	@Nullable
+	public synchronized FlattenedTemplate expand(@NotNull final VirtualFile file) {
+		return expand(file, new HashSet<VirtualFile>(), new HashMap<VirtualFile, FlattenedTemplate>());
+	}
+
+	/**
+	 * @param path    templates being expanded on the way here, to cut cycles
+	 * @param checked complete expansions already checked or made by this call, so a template included
+	 *                from many places is looked at once
+	 */
+	@Nullable
+	private FlattenedTemplate expand(final VirtualFile file, final Set<VirtualFile> path, final Map<VirtualFile, FlattenedTemplate> checked) {
+		FlattenedTemplate result = checked.get(file);
+		if (result != null) {
+			return result;
+		}
+		if (!file.isValid()) {
+			expansions.remove(file);
+			return null;
+		}
+
+		path.add(file);
+		try {
+			result = expansions.get(file);
+			if (result == null || !isUpToDate(result, path, checked)) {
+				result = flatten(file, path, checked);
+			}
+		} finally {
+			path.remove(file);
+		}
+
+		if (result == null) {
+			expansions.remove(file);
+		} else if (result.isComplete()) {
+			expansions.put(file, result);
+			checked.put(file, result);
+		}
+		return result;
+	}
+
+	private boolean isUpToDate(final FlattenedTemplate expansion, final Set<VirtualFile> path, final Map<VirtualFile, FlattenedTemplate> checked) {
+		VirtualFile file = expansion.getFile();
+		if (getStamp(file) != expansion.getStamp()) {
+			return false;
+		}
+
+		String[] includePaths = expansion.getIncludePaths();
+		VirtualFile[] targets = expansion.getIncludeTargets();
+		FlattenedTemplate[] inlined = expansion.getInlined();
+		for (int i = 0; i < includePaths.length; i++) {
+			VirtualFile target = resolve(file, includePaths[i]);
+			if (target != targets[i] || inline(target, path, checked) != inlined[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Nullable
+	private FlattenedTemplate flatten(final VirtualFile file, final Set<VirtualFile> path, final Map<VirtualFile, FlattenedTemplate> checked) {
+		ProgressManager.checkCanceled();
+		Document document = FileDocumentManager.getInstance().getDocument(file);
+		PsiFile psiFile = PsiManager.getInstance(project).findFile(file);
+		if (document == null || psiFile == null) {
+			return null;
+		}
+
+		CharSequence text = document.getCharsSequence();
+		int[] found = INCLUDE_SCANNER.findIncludePaths(text, 0, text.length());
+		List<String> includePaths = new ArrayList<String>();
+		List<VirtualFile> targets = new ArrayList<VirtualFile>();
+		List<FlattenedTemplate> inlined = new ArrayList<FlattenedTemplate>();
+		boolean complete = true;
+		Builder builder = new Builder(text.length());
+		int position = 0;
+		for (int i = 0; i < found.length; ) {
+			if (!EditorIncludeLinkParser.isComment(psiFile, found[i])) {
+				i += 2;
+				continue;
+			}
+			PsiComment comment = PsiTreeUtil.getParentOfType(psiFile.findElementAt(found[i]), PsiComment.class, false);
+			TextRange commentRange = comment != null ? comment.getTextRange() : new TextRange(found[i], found[i + 1]);
+
+			// a comment may hold several includes, its text is kept if any of them is not expanded
+			List<FlattenedTemplate> expanded = new ArrayList<FlattenedTemplate>();
+			boolean keepComment = false;
+			for (; i < found.length && found[i] < commentRange.getEndOffset(); i += 2) {
+				String includePath = text.subSequence(found[i], found[i + 1]).toString();
+				VirtualFile target = resolve(file, includePath);
+				FlattenedTemplate child = inline(target, path, checked);
+				includePaths.add(includePath);
+				targets.add(target);
+				inlined.add(child);
+				if (child == null) {
+					keepComment = true;
+					complete &= target == null || !path.contains(target);
+				} else {
+					expanded.add(child);
+					complete &= child.isComplete();
+				}
+			}
+
+			builder.appendSource(file, text, position, commentRange.getStartOffset());
+			for (FlattenedTemplate child : expanded) {
+				builder.appendExpansion(child);
+			}
+			if (keepComment) {
+				builder.appendSource(file, text, commentRange.getStartOffset(), commentRange.getEndOffset());
+			}
+			position = commentRange.getEndOffset();
+		}
+		builder.appendSource(file, text, position, text.length());
+
+		return builder.build(file, getStamp(file), includePaths.toArray(new String[includePaths.size()]),
+				targets.toArray(new VirtualFile[targets.size()]), inlined.toArray(new FlattenedTemplate[inlined.size()]), complete);
+	}
+
+	@Nullable
+	private FlattenedTemplate inline(@Nullable final VirtualFile target, final Set<VirtualFile> path, final Map<VirtualFile, FlattenedTemplate> checked) {
+		if (target == null || target.isDirectory() || !MTFileSniffer.hasTemplateExtension(target) || path.contains(target)) {
+			return null;
+		}
+		return expand(target, path, checked);
+	}
+
+	@Nullable
+	private VirtualFile resolve(final VirtualFile file, final String includePath) {
+		VirtualFile dir = file.getParent();
+		return dir != null ? IncludePathCache.getInstance(project).resolve(dir, includePath) : null;
+	}
+
+	private static long getStamp(final VirtualFile file) {
+		// a document loaded again starts with the stamp of its file
+		Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+		return document != null ? document.getModificationStamp() : file.getModificationStamp();
+	}
+
+	private static final class Builder {
+		private final StringBuilder text;
+		private final TIntArrayList segmentStarts = new TIntArrayList();
+		private final TIntArrayList segmentSourceOffsets = new TIntArrayList();
+		private final List<VirtualFile> segmentSources = new ArrayList<VirtualFile>();
+
+		private Builder(final int capacity) {
+			text = new StringBuilder(capacity);
+		}
+
+		void appendSource(final VirtualFile source, final CharSequence sourceText, final int start, final int end) {
+			if (start < end) {
+				addSegment(source, start);
+				text.append(sourceText, start, end);
+			}
+		}
+
+		void appendExpansion(final FlattenedTemplate expansion) {
+			int shift = text.length();
+			for (int i = 0; i < expansion.getSegmentCount(); i++) {
+				segmentStarts.add(expansion.getSegmentStart(i) + shift);
+				segmentSourceOffsets.add(expansion.getSegmentSourceOffset(i));
+				segmentSources.add(expansion.getSegmentSource(i));
+			}
+			text.append(expansion.getText());
+		}
+
+		FlattenedTemplate build(final VirtualFile file, final long stamp, final String[] includePaths, final VirtualFile[] targets,
+		                        final FlattenedTemplate[] inlined, final boolean complete) {
+			return new FlattenedTemplate(file, stamp, includePaths, targets, inlined, complete, text.toString(),
+					segmentStarts.toNativeArray(), segmentSourceOffsets.toNativeArray(),
+					segmentSources.toArray(new VirtualFile[segmentSources.size()]));
+		}
+
+		private void addSegment(final VirtualFile source, final int sourceOffset) {
+			segmentStarts.add(text.length());
+			segmentSourceOffsets.add(sourceOffset);
+			segmentSources.add(source);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package com.intellij.plugins.MT.preview;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.PsiDocumentManager;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 09:30
+ *
+ * Opens the current template with its includes expanded in a read-only editor tab,
+ * replacing the tab opened for it before. Expanding runs as a cancellable background task.
+ */
+public class ShowFlattenedTemplateAction extends AnAction {
+	public void update(final AnActionEvent e) {
+		Project project = e.getData(PlatformDataKeys.PROJECT);
+		VirtualFile file = e.getData(PlatformDataKeys.VIRTUAL_FILE);
+		e.getPresentation().setEnabled(project != null && file != null && MTFileSniffer.isTemplate(file));
+	}
+
+	public void actionPerformed(final AnActionEvent e) {
+		final Project project = e.getData(PlatformDataKeys.PROJECT);
+		final VirtualFile file = e.getData(PlatformDataKeys.VIRTUAL_FILE);
+		if (project == null || file == null) {
+			return;
+		}
+
+		PsiDocumentManager.getInstance(project).commitAllDocuments();
+		ProgressManager.getInstance().run(new Task.Backgroundable(project, "Flattening " + file.getName(), true) {
+			private FlattenedTemplate flattened;
+
+			public void run(@NotNull final ProgressIndicator indicator) {
+				flattened = ApplicationManager.getApplication().runReadAction(new Computable<FlattenedTemplate>() {
+					public FlattenedTemplate compute() {
+						return project.isDisposed() ? null : IncludeExpander.getInstance(project).expand(file);
+					}
+				});
+			}
+
+			public void onSuccess() {
+				if (flattened != null && !project.isDisposed()) {
+					open(project, file, flattened);
+				}
+			}
+		});
+	}
+
+	private static void open(@NotNull final Project project, @NotNull final VirtualFile file, @NotNull final FlattenedTemplate flattened) {
+		FileEditorManager editorManager = FileEditorManager.getInstance(project);
+		for (VirtualFile openFile : editorManager.getOpenFiles()) {
+			FlattenedTemplate open = openFile.getUserData(IncludeExpander.FLATTENED_KEY);
+			if (open != null && open.getFile().equals(file)) {
+				editorManager.closeFile(openFile);
+			}
+		}
+
+		LightVirtualFile preview = new LightVirtualFile(file.getName() + " (flattened)", file.getFileType(), flattened.getText());
+		preview.setWritable(false);
+		preview.putUserData(IncludeExpander.FLATTENED_KEY, flattened);
+		editorManager.openFile(preview, true);
+	}
+}
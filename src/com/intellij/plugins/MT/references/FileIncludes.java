@@ -0,0 +1,87 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.higlighter.EditorIncludeLinkParser;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 22:20
+ *
+ * INCLUDE paths of one template version which sit in comments, in offset order, with the templates they resolve to.
+ */
+final class FileIncludes {
+	private static final MTDirectiveScanner INCLUDE_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+
+	private final int[] offsets;
+	private final VirtualFile[] targets;
+
+	private FileIncludes(final int[] offsets, final VirtualFile[] targets) {
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+
+	@NotNull
+	static FileIncludes parse(@NotNull final PsiFile file) {
+		CharSequence text = file.getViewProvider().getContents();
+		int[] found = INCLUDE_SCANNER.findIncludePaths(text, 0, text.length());
+		int count = 0;
+		for (int i = 0; i < found.length; i += 2) {
+			if (EditorIncludeLinkParser.isComment(file, found[i])) {
+				found[count++] = found[i];
+				found[count++] = found[i + 1];
+			}
+		}
+
+		int[] offsets = Arrays.copyOf(found, count);
+		VirtualFile[] targets = new VirtualFile[count / 2];
+		for (int i = 0; i < targets.length; i++) {
+			String path = text.subSequence(offsets[2 * i], offsets[2 * i + 1]).toString();
+			targets[i] = EditorIncludeLinkParser.resolveIncludedFile(file, path);
+		}
+		return new FileIncludes(offsets, targets);
+	}
+
+	/**
+	 * Returns references of the includes inside <code>element</code>, unresolved ones included.
+	 */
+	@NotNull
+	PsiReference[] getReferences(@NotNull final PsiElement element) {
+		TextRange range = element.getTextRange();
+		if (range == null || offsets.length == 0) {
+			return PsiReference.EMPTY_ARRAY;
+		}
+
+		List<PsiReference> references = new ArrayList<PsiReference>();
+		for (int i = findFirst(range.getStartOffset()); i < targets.length && offsets[2 * i + 1] <= range.getEndOffset(); i++) {
+			TextRange rangeInElement = new TextRange(offsets[2 * i], offsets[2 * i + 1]).shiftRight(-range.getStartOffset());
+			references.add(new IncludeFileReference(element, rangeInElement, targets[i]));
+		}
+		return references.toArray(new PsiReference[references.size()]);
+	}
+
+	private int findFirst(final int offset) {
+		int low = 0;
+		int high = targets.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (offsets[2 * middle] < offset) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
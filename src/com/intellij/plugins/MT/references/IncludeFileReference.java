@@ -0,0 +1,57 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiReferenceBase;
+import com.intellij.psi.util.PsiTreeUtil;
+import com.intellij.psi.xml.XmlComment;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 20:20
+ *
+ * Path of an INCLUDE directive in a comment, resolving to the included template.
+ */
+public class IncludeFileReference extends PsiReferenceBase<PsiElement> {
+	private final VirtualFile target;
+
+	public IncludeFileReference(@NotNull final PsiElement element, @NotNull final TextRange rangeInElement, @Nullable final VirtualFile target) {
+		super(element, rangeInElement, true);
+		this.target = target;
+	}
+
+	/**
+	 * Creates a reference for the include path at [startOffset, endOffset) of <code>file</code>,
+	 * or returns null if the path is not inside a comment.
+	 */
+	@Nullable
+	public static IncludeFileReference create(@NotNull final PsiFile file, final int startOffset, final int endOffset, @NotNull final VirtualFile target) {
+		PsiElement element = PsiTreeUtil.getParentOfType(file.findElementAt(startOffset), XmlComment.class, false);
+		if (element == null) {
+			return null;
+		}
+		TextRange elementRange = element.getTextRange();
+		if (elementRange == null || elementRange.getEndOffset() < endOffset) {
+			return null;
+		}
+		int elementStart = elementRange.getStartOffset();
+		return new IncludeFileReference(element, new TextRange(startOffset - elementStart, endOffset - elementStart), target);
+	}
+
+	@Nullable
+	public PsiElement resolve() {
+		return target != null && target.isValid() ? PsiManager.getInstance(getElement().getProject()).findFile(target) : null;
+	}
+
+	@NotNull
+	public Object[] getVariants() {
+		return EMPTY_ARRAY;
+	}
+}
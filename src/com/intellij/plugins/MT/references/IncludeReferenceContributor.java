@@ -0,0 +1,21 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.patterns.PlatformPatterns;
+import com.intellij.psi.PsiReferenceContributor;
+import com.intellij.psi.PsiReferenceRegistrar;
+import com.intellij.psi.xml.XmlComment;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 22:35
+ *
+ * Makes INCLUDE paths in comments references, so Ctrl+click, Go to Declaration and Find Usages work on them.
+ */
+public class IncludeReferenceContributor extends PsiReferenceContributor {
+
+	public void registerReferenceProviders(final PsiReferenceRegistrar registrar) {
+		registrar.registerReferenceProvider(PlatformPatterns.psiElement(XmlComment.class), new IncludeReferenceProvider());
+	}
+}
@@ -0,0 +1,56 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.PsiReferenceProvider;
+import com.intellij.psi.util.CachedValue;
+import com.intellij.psi.util.CachedValueProvider;
+import com.intellij.psi.util.CachedValuesManager;
+import com.intellij.psi.util.PsiModificationTracker;
+import com.intellij.util.ProcessingContext;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 22:30
+ *
+ * References of the INCLUDE paths in an HTML comment. The includes of the whole template are parsed
+ * and resolved once per PSI modification (or include path cache invalidation) and shared by all its comments.
+ */
+public class IncludeReferenceProvider extends PsiReferenceProvider {
+	private static final Key<CachedValue<FileIncludes>> INCLUDES_KEY = Key.create("MT.fileIncludes");
+
+	@NotNull
+	public PsiReference[] getReferencesByElement(@NotNull final PsiElement element, @NotNull final ProcessingContext context) {
+		PsiFile file = element.getContainingFile();
+		VirtualFile virtualFile = file != null ? file.getOriginalFile().getVirtualFile() : null;
+		if (virtualFile == null || !MTFileSniffer.isTemplate(virtualFile)) {
+			return PsiReference.EMPTY_ARRAY;
+		}
+		return getIncludes(file).getReferences(element);
+	}
+
+	@NotNull
+	static FileIncludes getIncludes(@NotNull final PsiFile file) {
+		CachedValue<FileIncludes> includes = file.getUserData(INCLUDES_KEY);
+		if (includes == null) {
+			includes = CachedValuesManager.getManager(file.getProject()).createCachedValue(new CachedValueProvider<FileIncludes>() {
+				public Result<FileIncludes> compute() {
+					IncludePathCache cache = IncludePathCache.getInstance(file.getProject());
+					return cache != null
+							? Result.create(FileIncludes.parse(file), PsiModificationTracker.MODIFICATION_COUNT, cache)
+							: Result.create(FileIncludes.parse(file), PsiModificationTracker.MODIFICATION_COUNT);
+				}
+			}, false);
+			file.putUserData(INCLUDES_KEY, includes);
+		}
+		return includes.getValue();
+	}
+}
@@ -0,0 +1,97 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.index.IncludeEdge;
+import com.intellij.plugins.MT.index.MTIncludeIndex;
+import com.intellij.plugins.MT.index.MTIncludedByIndex;
+import com.intellij.psi.PsiElement;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiManager;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.GlobalSearchScope;
+import com.intellij.psi.search.SearchScope;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.util.Processor;
+import com.intellij.util.QueryExecutor;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 20:30
+ *
+ * Find Usages of a template: its INCLUDE directives in other templates, looked up in {@link MTIncludedByIndex}
+ * instead of a text search. Only the templates found there are loaded.
+ * The included by gutter icon counts the same references, so both agree on what includes a template.
+ */
+public class IncludeReferencesSearcher implements QueryExecutor<PsiReference, ReferencesSearch.SearchParameters> {
+
+	public boolean execute(final ReferencesSearch.SearchParameters queryParameters, final Processor<PsiReference> consumer) {
+		final PsiElement element = queryParameters.getElementToSearch();
+		if (!(element instanceof PsiFile)) {
+			return true;
+		}
+
+		final List<PsiReference> references = ApplicationManager.getApplication().runReadAction(new Computable<List<PsiReference>>() {
+			public List<PsiReference> compute() {
+				return findReferences((PsiFile) element, queryParameters.getEffectiveSearchScope());
+			}
+		});
+		for (PsiReference reference : references) {
+			if (!consumer.process(reference)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static List<PsiReference> findReferences(final PsiFile file, final SearchScope searchScope) {
+		if (!(searchScope instanceof GlobalSearchScope)) {
+			return new ArrayList<PsiReference>();
+		}
+		return findReferences(file, (GlobalSearchScope) searchScope);
+	}
+
+	/**
+	 * Returns the INCLUDE directives of <code>file</code> in <code>searchScope</code> which still match the
+	 * current text of their templates. Call in a read action.
+	 */
+	@NotNull
+	public static List<PsiReference> findReferences(@NotNull final PsiFile file, @NotNull final GlobalSearchScope searchScope) {
+		List<PsiReference> references = new ArrayList<PsiReference>();
+		VirtualFile target = file.getVirtualFile();
+		if (!file.isValid() || target == null || !MTIncludeIndex.isTemplate(target)) {
+			return references;
+		}
+
+		Project project = file.getProject();
+		PsiManager psiManager = PsiManager.getInstance(project);
+		Map<VirtualFile, List<IncludeEdge>> includingFiles = MTIncludedByIndex.getIncludingFiles(project, target, searchScope);
+		for (Map.Entry<VirtualFile, List<IncludeEdge>> entry : includingFiles.entrySet()) {
+			PsiFile includingFile = psiManager.findFile(entry.getKey());
+			if (includingFile == null) {
+				continue;
+			}
+			for (IncludeEdge edge : entry.getValue()) {
+				// the index may lag behind an unsaved document
+				if (edge.getEndOffset() > includingFile.getTextLength()
+						|| !edge.getPath().contentEquals(includingFile.getViewProvider().getContents().subSequence(edge.getOffset(), edge.getEndOffset()))) {
+					continue;
+				}
+				IncludeFileReference reference = IncludeFileReference.create(includingFile, edge.getOffset(), edge.getEndOffset(), target);
+				if (reference != null) {
+					references.add(reference);
+				}
+			}
+		}
+		return references;
+	}
+}
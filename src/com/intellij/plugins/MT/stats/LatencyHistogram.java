@@ -0,0 +1,93 @@
+package com.intellij.plugins.MT.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 12:40
+ *
+ * Lock free histogram of durations with power of two microsecond buckets: bucket 0 holds durations under 1 us,
+ * bucket i the ones from 2^(i-1) up to 2^i us. Percentiles are reported as the upper bound of their bucket,
+ * so they are off by at most a factor of two, which is enough to tell a 50 us stage from a 50 ms one.
+ */
+final class LatencyHistogram {
+	static final int BUCKET_COUNT = 32;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	void record(final long nanos) {
+		long micros = nanos / 1000;
+		int bucket = micros <= 0 ? 0 : Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getTotalMicros() {
+		return totalNanos.get() / 1000;
+	}
+
+	long getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / n / 1000;
+	}
+
+	long getMaxMicros() {
+		return maxNanos.get() / 1000;
+	}
+
+	long[] getBuckets() {
+		long[] result = new long[BUCKET_COUNT];
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			result[i] = buckets.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the upper bound in microseconds of the bucket holding the <code>percent</code>th percentile,
+	 * but no more than the maximum, 0 if empty.
+	 */
+	long getPercentileMicros(final double percent) {
+		long[] snapshot = getBuckets();
+		long total = 0;
+		for (long bucketCount : snapshot) {
+			total += bucketCount;
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percent / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(1L << i, getMaxMicros());
+			}
+		}
+		return getMaxMicros();
+	}
+}
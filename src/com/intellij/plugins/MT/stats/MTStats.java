@@ -0,0 +1,309 @@
+package com.intellij.plugins.MT.stats;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 12:55
+ *
+ * Application wide timings of the hot paths of the plugin: a latency histogram per {@link Stage}, a few counters,
+ * the time spent on the event dispatch thread and the files with the slowest parses. Off unless the
+ * <code>mt.stats</code> system property is set or it is switched on in the MT Stats tool window or over JMX,
+ * where it shows up once collecting was on, see {@link MTStatsJmx}.
+ * When off, {@link #start()} is one volatile read and {@link #stop} returns right away, so call sites stay in place.
+ * <pre>
+ *   long start = MTStats.start();
+ *   ...
+ *   MTStats.stop(MTStats.Stage.SCAN, start);
+ * </pre>
+ */
+public final class MTStats {
+	public enum Stage {
+		/** Background parse of the dirty lines of a template: scan, resolution and comment checks. */
+		PARSE(true),
+		/** Directive scan of a chunk of text. */
+		SCAN(false),
+		/** Resolution of one include path, cached or not. */
+		RESOLVE(false),
+		/** File system lookup of an include path missing from the cache. */
+		VFS_LOOKUP(false),
+		/** Comment check of an include from the editor lexer tokens. */
+		COMMENT(false),
+		/** Comment check of an include from the PSI, when no editor is around. */
+		COMMENT_PSI(false),
+		/** Applying a parse to the range store and the markup, on the event dispatch thread. */
+		APPLY(true),
+		/** Adding and removing range highlighters in the editors. */
+		MARKUP(false),
+		/** Resolving includes again after files appeared or went. */
+		REVALIDATE(true);
+
+		// outermost stages, the event dispatch thread time is summed over these only so nested ones are not counted twice
+		private final boolean outer;
+
+		Stage(final boolean outer) {
+			this.outer = outer;
+		}
+	}
+
+	public enum Counter {
+		RANGES_PARSED(false),
+		MARKUP_ADDED(false),
+		MARKUP_REMOVED(false),
+		RESOLVE_CACHE_HITS(false),
+		RESOLVE_CACHE_MISSES(false),
+		VFS_EVENTS(false),
+		/** Template changes folded into one already waiting for its batch. */
+		VFS_CHANGES_COALESCED(false),
+		CHANGE_BATCHES(false),
+		/** Templates handed to the listeners of change batches, summed over the batches. */
+		CHANGED_TEMPLATES(false),
+		/** Documents with a live include highlighter, counted even when off so it stays balanced. */
+		LINK_HIGHLIGHTERS(true);
+
+		private final boolean gauge;
+
+		Counter(final boolean gauge) {
+			this.gauge = gauge;
+		}
+	}
+
+	private static final int SLOWEST_FILE_COUNT = 10;
+
+	private static volatile boolean enabled = Boolean.getBoolean("mt.stats");
+	private static volatile long enabledSince = System.currentTimeMillis();
+	private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+	private static final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+	private static final AtomicLong edtNanos = new AtomicLong();
+	// slowest outer stage runs by file, sorted slowest first; guarded by itself
+	private static final List<SlowFile> slowestFiles = new ArrayList<SlowFile>();
+	// a run must be slower than this to get into a full slowestFiles
+	private static volatile long slowestFileThreshold = 0;
+
+	static {
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+		if (enabled) {
+			MTStatsJmx.register();
+		}
+	}
+
+	private MTStats() {
+	}
+
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	public static void setEnabled(final boolean enabled) {
+		if (enabled && !MTStats.enabled) {
+			enabledSince = System.currentTimeMillis();
+			MTStatsJmx.register();
+		}
+		MTStats.enabled = enabled;
+	}
+
+	/**
+	 * Returns the start time to hand to {@link #stop}, or 0 when off.
+	 */
+	public static long start() {
+		return enabled ? System.nanoTime() : 0;
+	}
+
+	public static void stop(@NotNull final Stage stage, final long start) {
+		stop(stage, start, null);
+	}
+
+	/**
+	 * Records the time since <code>start</code> for <code>stage</code>. Runs of outer stages are also
+	 * candidates for the slowest files list, if <code>file</code> is given.
+	 */
+	public static void stop(@NotNull final Stage stage, final long start, @Nullable final VirtualFile file) {
+		if (start == 0) {
+			return;
+		}
+		long nanos = System.nanoTime() - start;
+		histograms[stage.ordinal()].record(nanos);
+		if (stage.outer) {
+			if (EventQueue.isDispatchThread()) {
+				edtNanos.addAndGet(nanos);
+			}
+			if (file != null && nanos > slowestFileThreshold) {
+				addSlowFile(file.getPath(), stage, nanos);
+			}
+		}
+	}
+
+	public static void count(@NotNull final Counter counter, final int delta) {
+		if (enabled || counter.gauge) {
+			counters.addAndGet(counter.ordinal(), delta);
+		}
+	}
+
+	/**
+	 * Clears everything but the gauges.
+	 */
+	public static void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+		for (Counter counter : Counter.values()) {
+			if (!counter.gauge) {
+				counters.set(counter.ordinal(), 0);
+			}
+		}
+		edtNanos.set(0);
+		synchronized (slowestFiles) {
+			slowestFiles.clear();
+			slowestFileThreshold = 0;
+		}
+		enabledSince = System.currentTimeMillis();
+	}
+
+	private static void addSlowFile(@NotNull final String path, @NotNull final Stage stage, final long nanos) {
+		synchronized (slowestFiles) {
+			for (int i = 0; i < slowestFiles.size(); i++) {
+				SlowFile slowFile = slowestFiles.get(i);
+				if (slowFile.path.equals(path)) {
+					if (slowFile.nanos >= nanos) {
+						return;
+					}
+					slowestFiles.remove(i);
+					break;
+				}
+			}
+			slowestFiles.add(new SlowFile(path, stage, nanos));
+			Collections.sort(slowestFiles, SlowFile.SLOWEST_FIRST);
+			if (slowestFiles.size() > SLOWEST_FILE_COUNT) {
+				slowestFiles.remove(slowestFiles.size() - 1);
+			}
+			slowestFileThreshold = slowestFiles.size() < SLOWEST_FILE_COUNT ? 0 : slowestFiles.get(slowestFiles.size() - 1).nanos;
+		}
+	}
+
+	private static List<SlowFile> getSlowestFiles() {
+		synchronized (slowestFiles) {
+			return new ArrayList<SlowFile>(slowestFiles);
+		}
+	}
+
+	/**
+	 * Plain text report, for the tool window.
+	 */
+	@NotNull
+	public static String toText() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Collecting: ").append(enabled ? "on" : "off (start with -Dmt.stats=true or switch on here)")
+				.append(", for ").append((System.currentTimeMillis() - enabledSince) / 1000).append(" s\n\n");
+
+		builder.append(String.format("%-12s %9s %11s %9s %9s %9s %9s %11s%n", "stage", "count", "total us", "mean us", "p50 us", "p90 us", "p99 us", "max us"));
+		for (Stage stage : Stage.values()) {
+			LatencyHistogram histogram = histograms[stage.ordinal()];
+			builder.append(String.format("%-12s %9d %11d %9d %9d %9d %9d %11d%n", stage, histogram.getCount(), histogram.getTotalMicros(),
+					histogram.getMeanMicros(), histogram.getPercentileMicros(50), histogram.getPercentileMicros(90),
+					histogram.getPercentileMicros(99), histogram.getMaxMicros()));
+		}
+		builder.append(String.format("%nevent dispatch thread: %d us%n%n", edtNanos.get() / 1000));
+
+		for (Counter counter : Counter.values()) {
+			builder.append(String.format("%-22s %d%n", counter, counters.get(counter.ordinal())));
+		}
+
+		builder.append("\nslowest files:\n");
+		for (SlowFile slowFile : getSlowestFiles()) {
+			builder.append(String.format("%11d us  %-10s %s%n", slowFile.nanos / 1000, slowFile.stage, slowFile.path));
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * JSON report, for the dump and JMX. Percentiles are upper bounds of power of two buckets.
+	 */
+	@NotNull
+	public static String toJson() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("{\n  \"enabled\": ").append(enabled)
+				.append(",\n  \"collectingMillis\": ").append(System.currentTimeMillis() - enabledSince)
+				.append(",\n  \"edtMicros\": ").append(edtNanos.get() / 1000)
+				.append(",\n  \"stages\": {");
+		Stage[] stages = Stage.values();
+		for (int i = 0; i < stages.length; i++) {
+			LatencyHistogram histogram = histograms[stages[i].ordinal()];
+			builder.append(i == 0 ? "\n" : ",\n").append("    \"").append(stages[i]).append("\": {")
+					.append("\"count\": ").append(histogram.getCount())
+					.append(", \"totalMicros\": ").append(histogram.getTotalMicros())
+					.append(", \"meanMicros\": ").append(histogram.getMeanMicros())
+					.append(", \"p50Micros\": ").append(histogram.getPercentileMicros(50))
+					.append(", \"p90Micros\": ").append(histogram.getPercentileMicros(90))
+					.append(", \"p99Micros\": ").append(histogram.getPercentileMicros(99))
+					.append(", \"maxMicros\": ").append(histogram.getMaxMicros())
+					.append(", \"buckets\": [");
+			long[] buckets = histogram.getBuckets();
+			for (int j = 0; j < buckets.length; j++) {
+				builder.append(j == 0 ? "" : ", ").append(buckets[j]);
+			}
+			builder.append("]}");
+		}
+		builder.append("\n  },\n  \"counters\": {");
+		Counter[] counterValues = Counter.values();
+		for (int i = 0; i < counterValues.length; i++) {
+			builder.append(i == 0 ? "\n" : ",\n").append("    \"").append(counterValues[i]).append("\": ").append(counters.get(counterValues[i].ordinal()));
+		}
+		builder.append("\n  },\n  \"slowestFiles\": [");
+		List<SlowFile> files = getSlowestFiles();
+		for (int i = 0; i < files.size(); i++) {
+			SlowFile slowFile = files.get(i);
+			builder.append(i == 0 ? "\n" : ",\n").append("    {\"path\": ");
+			appendJsonString(builder, slowFile.path);
+			builder.append(", \"stage\": \"").append(slowFile.stage).append("\", \"micros\": ").append(slowFile.nanos / 1000).append('}');
+		}
+		builder.append("\n  ]\n}\n");
+		return builder.toString();
+	}
+
+	private static void appendJsonString(@NotNull final StringBuilder builder, @NotNull final String value) {
+		builder.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				builder.append('\\').append(c);
+			} else if (c < 0x20) {
+				builder.append(String.format("\\u%04x", (int) c));
+			} else {
+				builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+
+	private static final class SlowFile {
+		private static final Comparator<SlowFile> SLOWEST_FIRST = new Comparator<SlowFile>() {
+			public int compare(final SlowFile o1, final SlowFile o2) {
+				return o1.nanos < o2.nanos ? 1 : o1.nanos > o2.nanos ? -1 : 0;
+			}
+		};
+
+		private final String path;
+		private final Stage stage;
+		private final long nanos;
+
+		private SlowFile(final String path, final Stage stage, final long nanos) {
+			this.path = path;
+			this.stage = stage;
+			this.nanos = nanos;
+		}
+	}
+}
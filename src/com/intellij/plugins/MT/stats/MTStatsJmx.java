@@ -0,0 +1,80 @@
+package com.intellij.plugins.MT.stats;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.Application;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 13:35
+ *
+ * Puts {@link MTStats} on the platform MBean server when collecting is first switched on, or when the
+ * <code>mt.stats</code> system property is set, and takes it off when the application goes.
+ */
+final class MTStatsJmx implements MTStatsMBean {
+	private static final Logger LOG = Logger.getInstance(MTStatsJmx.class.getName());
+	private static final String OBJECT_NAME = "com.intellij.plugins.MT:type=Stats";
+
+	private static boolean registered = false;
+
+	private MTStatsJmx() {
+	}
+
+	static synchronized void register() {
+		Application application = ApplicationManager.getApplication();
+		if (registered || application == null) {
+			return;
+		}
+		registered = true;
+
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			final ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) {
+				return;
+			}
+			server.registerMBean(new StandardMBean(new MTStatsJmx(), MTStatsMBean.class), name);
+			Disposer.register(application, new Disposable() {
+				public void dispose() {
+					try {
+						ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+					} catch (JMException e) {
+						LOG.debug(e);
+					}
+				}
+			});
+		} catch (JMException e) {
+			LOG.info("Cannot register " + OBJECT_NAME, e);
+		}
+	}
+
+	public boolean isEnabled() {
+		return MTStats.isEnabled();
+	}
+
+	public void setEnabled(final boolean enabled) {
+		MTStats.setEnabled(enabled);
+	}
+
+	public void reset() {
+		MTStats.reset();
+	}
+
+	public String getReport() {
+		return MTStats.toText();
+	}
+
+	public String dumpJson() {
+		return MTStats.toJson();
+	}
+}
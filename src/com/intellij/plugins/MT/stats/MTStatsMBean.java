@@ -0,0 +1,21 @@
+package com.intellij.plugins.MT.stats;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 13:30
+ *
+ * JMX view of {@link MTStats}, registered as <code>com.intellij.plugins.MT:type=Stats</code>.
+ */
+public interface MTStatsMBean {
+	boolean isEnabled();
+
+	void setEnabled(boolean enabled);
+
+	void reset();
+
+	String getReport();
+
+	String dumpJson();
+}
@@ -0,0 +1,110 @@
+package com.intellij.plugins.MT.stats;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 13:50
+ *
+ * MT Stats tool window: the {@link MTStats} report, refreshed every second while the window is shown,
+ * with buttons to switch collecting on and off, reset and save a JSON dump to the log directory.
+ * Not a tool window extension, {@link ShowStatsAction} registers the window when it is first asked for.
+ */
+public class MTStatsToolWindowFactory implements ToolWindowFactory {
+	private static final Logger LOG = Logger.getInstance(MTStatsToolWindowFactory.class.getName());
+	private static final int REFRESH_DELAY = 1000;
+
+	public void createToolWindowContent(final Project project, final ToolWindow toolWindow) {
+		final JTextArea report = new JTextArea();
+		report.setEditable(false);
+		report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, report.getFont().getSize()));
+
+		final JCheckBox collect = new JCheckBox("Collect", MTStats.isEnabled());
+		collect.addActionListener(new ActionListener() {
+			public void actionPerformed(final ActionEvent e) {
+				MTStats.setEnabled(collect.isSelected());
+				report.setText(MTStats.toText());
+			}
+		});
+		JButton reset = new JButton("Reset");
+		reset.addActionListener(new ActionListener() {
+			public void actionPerformed(final ActionEvent e) {
+				MTStats.reset();
+				report.setText(MTStats.toText());
+			}
+		});
+		JButton save = new JButton("Save JSON");
+		save.addActionListener(new ActionListener() {
+			public void actionPerformed(final ActionEvent e) {
+				saveJson(project);
+			}
+		});
+
+		JPanel buttons = new JPanel(new FlowLayout(FlowLayout.LEFT));
+		buttons.add(collect);
+		buttons.add(reset);
+		buttons.add(save);
+		JPanel panel = new JPanel(new BorderLayout());
+		panel.add(buttons, BorderLayout.NORTH);
+		panel.add(new JScrollPane(report), BorderLayout.CENTER);
+		report.setText(MTStats.toText());
+
+		final Timer timer = new Timer(REFRESH_DELAY, new ActionListener() {
+			public void actionPerformed(final ActionEvent e) {
+				if (toolWindow.isVisible()) {
+					collect.setSelected(MTStats.isEnabled());
+					report.setText(MTStats.toText());
+				}
+			}
+		});
+		timer.start();
+		Disposer.register(project, new Disposable() {
+			public void dispose() {
+				timer.stop();
+			}
+		});
+
+		Content content = ContentFactory.SERVICE.getInstance().createContent(panel, "", false);
+		toolWindow.getContentManager().addContent(content);
+	}
+
+	private static void saveJson(@NotNull final Project project) {
+		File file = new File(PathManager.getLogPath(), "mt-stats-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(MTStats.toJson());
+			} finally {
+				writer.close();
+			}
+			Messages.showInfoMessage(project, "Saved to " + file.getPath(), "MT Stats");
+		} catch (IOException e) {
+			LOG.info("Cannot save " + file.getPath(), e);
+			Messages.showErrorDialog(project, "Cannot save " + file.getPath() + ": " + e.getMessage(), "MT Stats");
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package com.intellij.plugins.MT.stats;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.PlatformDataKeys;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowAnchor;
+import com.intellij.openapi.wm.ToolWindowManager;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:40
+ *
+ * Opens the MT Stats tool window, registering it with the project on first use,
+ * so projects which never look at the stats carry no tool window.
+ */
+public class ShowStatsAction extends AnAction {
+	static final String TOOL_WINDOW_ID = "MT Stats";
+
+	public void update(final AnActionEvent e) {
+		e.getPresentation().setEnabled(e.getData(PlatformDataKeys.PROJECT) != null);
+	}
+
+	public void actionPerformed(final AnActionEvent e) {
+		Project project = e.getData(PlatformDataKeys.PROJECT);
+		if (project == null) {
+			return;
+		}
+
+		ToolWindowManager manager = ToolWindowManager.getInstance(project);
+		ToolWindow toolWindow = manager.getToolWindow(TOOL_WINDOW_ID);
+		if (toolWindow == null) {
+			toolWindow = manager.registerToolWindow(TOOL_WINDOW_ID, false, ToolWindowAnchor.BOTTOM, project, true);
+			new MTStatsToolWindowFactory().createToolWindowContent(project, toolWindow);
+		}
+		toolWindow.activate(null);
+	}
+}
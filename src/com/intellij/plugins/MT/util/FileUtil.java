@@ -1,6 +1,7 @@
 package com.intellij.plugins.MT.util;
 
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.stats.MTStats;
 import com.intellij.psi.PsiFile;
 
 /**
@@ -16,7 +17,9 @@ public final class FileUtil {
 		if (currentVirtualFile != null && currentVirtualFile.isValid()) {
 			VirtualFile dir = currentVirtualFile.getParent();
 			if (dir != null && dir.isValid()) {
+				long start = MTStats.start();
 				VirtualFile virtualFile = dir.findFileByRelativePath(fileName);
+				MTStats.stop(MTStats.Stage.VFS_LOOKUP, start);
 				if (virtualFile != null && virtualFile.isValid()) {
 					return virtualFile;
 				}
@@ -0,0 +1,280 @@
+package com.intellij.plugins.MT.util;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ModificationTracker;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileListener;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import com.intellij.plugins.MT.parser.IncludePaths;
+import com.intellij.plugins.MT.stats.MTStats;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 13:20
+ *
+ * Project wide cache of include path resolution, keyed by the including directory and the path as written.
+ * Both found files and misses are remembered. Entries are dropped by VFS events touching their target path
+ * or their including directory (or any directory above them), so a reparse of unchanged templates does no VFS lookups.
+ * Hits and misses are counted here always, and in {@link MTStats} too while it is on.
+ * A project service, created by the first resolution.
+ */
+public class IncludePathCache implements Disposable, ModificationTracker {
+	private static final Logger LOG = Logger.getInstance(IncludePathCache.class.getName());
+
+	private final Project project;
+	private final Map<CacheKey, Entry> resolved = new HashMap<CacheKey, Entry>();
+	// resolved target path -> keys resolving to it, sorted so a directory event finds everything below it
+	private final TreeMap<String, Set<CacheKey>> keysByTargetPath = new TreeMap<String, Set<CacheKey>>();
+	// including directory path when cached -> its keys, as a moved directory has its new path by the after event
+	private final TreeMap<String, Set<CacheKey>> keysByDirPath = new TreeMap<String, Set<CacheKey>>();
+	private long hitCount = 0;
+	private long missCount = 0;
+	private long invalidationCount = 0;
+
+	public IncludePathCache(Project project) {
+		this.project = project;
+		VirtualFileListener fileListener = new VirtualFileAdapter() {
+			public void fileCreated(final VirtualFileEvent event) {
+				invalidate(event.getFile());
+			}
+
+			public void beforeFileDeletion(final VirtualFileEvent event) {
+				invalidate(event.getFile());
+			}
+
+			public void beforeFileMovement(final VirtualFileMoveEvent event) {
+				invalidate(event.getFile());
+			}
+
+			public void fileMoved(final VirtualFileMoveEvent event) {
+				invalidate(event.getFile());
+			}
+
+			public void beforePropertyChange(final VirtualFilePropertyEvent event) {
+				if (VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+					invalidate(event.getFile());
+				}
+			}
+
+			public void propertyChanged(final VirtualFilePropertyEvent event) {
+				if (VirtualFile.PROP_NAME.equals(event.getPropertyName())) {
+					invalidate(event.getFile());
+				}
+			}
+		};
+		VirtualFileManager.getInstance().addVirtualFileListener(fileListener, this);
+	}
+
+	public static IncludePathCache getInstance(@NotNull final Project project) {
+		return ServiceManager.getService(project, IncludePathCache.class);
+	}
+
+	public void dispose() {
+		clear();
+	}
+
+	/**
+	 * Resolves <code>relativePath</code> against the directory of <code>file</code>.
+	 */
+	@Nullable
+	public VirtualFile resolve(@Nullable final PsiFile file, @NotNull final String relativePath) {
+		if (file == null) {
+			return null;
+		}
+		VirtualFile currentVirtualFile = file.getVirtualFile();
+		if (currentVirtualFile == null || !currentVirtualFile.isValid()) {
+			return null;
+		}
+		VirtualFile dir = currentVirtualFile.getParent();
+		if (dir == null || !dir.isValid()) {
+			return null;
+		}
+		return resolve(dir, relativePath);
+	}
+
+	@Nullable
+	public VirtualFile resolve(@NotNull final VirtualFile dir, @NotNull final String relativePath) {
+		CacheKey key = new CacheKey(dir, relativePath);
+		synchronized (this) {
+			Entry cached = resolved.get(key);
+			if (cached != null && (cached.file == null || cached.file.isValid())) {
+				hitCount++;
+				MTStats.count(MTStats.Counter.RESOLVE_CACHE_HITS, 1);
+				return cached.file;
+			}
+			missCount++;
+		}
+		MTStats.count(MTStats.Counter.RESOLVE_CACHE_MISSES, 1);
+
+		long start = MTStats.start();
+		VirtualFile virtualFile = dir.findFileByRelativePath(relativePath);
+		MTStats.stop(MTStats.Stage.VFS_LOOKUP, start);
+		if (virtualFile != null && !virtualFile.isValid()) {
+			virtualFile = null;
+		}
+
+		String dirPath = dir.getPath();
+		String targetPath = IncludePaths.resolve(dirPath, relativePath);
+		if (targetPath != null) {
+			synchronized (this) {
+				Entry previous = resolved.put(key, new Entry(virtualFile, targetPath, dirPath));
+				if (previous != null) {
+					unindex(keysByTargetPath, previous.targetPath, key);
+					unindex(keysByDirPath, previous.dirPath, key);
+				}
+				index(keysByTargetPath, targetPath, key);
+				index(keysByDirPath, dirPath, key);
+			}
+		}
+		return virtualFile;
+	}
+
+	private static void index(@NotNull final Map<String, Set<CacheKey>> index, @NotNull final String path, @NotNull final CacheKey key) {
+		Set<CacheKey> keys = index.get(path);
+		if (keys == null) {
+			keys = new HashSet<CacheKey>();
+			index.put(path, keys);
+		}
+		keys.add(key);
+	}
+
+	private static void unindex(@NotNull final Map<String, Set<CacheKey>> index, @NotNull final String path, @NotNull final CacheKey key) {
+		Set<CacheKey> keys = index.get(path);
+		if (keys != null && keys.remove(key) && keys.isEmpty()) {
+			index.remove(path);
+		}
+	}
+
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	public synchronized long getInvalidationCount() {
+		return invalidationCount;
+	}
+
+	/**
+	 * Changes whenever cached resolutions are dropped, so values depending on resolution can be invalidated.
+	 */
+	public long getModificationCount() {
+		return getInvalidationCount();
+	}
+
+	public synchronized int size() {
+		return resolved.size();
+	}
+
+	public synchronized void clear() {
+		resolved.clear();
+		keysByTargetPath.clear();
+		keysByDirPath.clear();
+	}
+
+	private void invalidate(@NotNull final VirtualFile file) {
+		invalidate(file.getPath());
+	}
+
+	/**
+	 * Drops every entry resolving to <code>path</code> or to anything below it, and every entry
+	 * of an including directory at or below <code>path</code>, as its relative paths lead elsewhere after a move.
+	 */
+	public synchronized void invalidate(@NotNull final String path) {
+		if (resolved.isEmpty()) {
+			return;
+		}
+		dropAtOrBelow(keysByTargetPath, path);
+		dropAtOrBelow(keysByDirPath, path);
+	}
+
+	private void dropAtOrBelow(@NotNull final TreeMap<String, Set<CacheKey>> index, @NotNull final String path) {
+		drop(index.remove(path));
+
+		String prefix = path.endsWith("/") ? path : path + "/";
+		// '0' follows '/' so the sub map holds exactly the paths below the directory
+		SortedMap<String, Set<CacheKey>> below = index.subMap(prefix, prefix.substring(0, prefix.length() - 1) + '0');
+		for (Iterator<Set<CacheKey>> it = below.values().iterator(); it.hasNext(); ) {
+			Set<CacheKey> keys = it.next();
+			it.remove();
+			drop(keys);
+		}
+	}
+
+	/**
+	 * Drops the entries of <code>keys</code>, already taken out of one index, from the cache and the other index.
+	 */
+	private void drop(@Nullable final Set<CacheKey> keys) {
+		if (keys != null) {
+			for (CacheKey key : keys) {
+				Entry entry = resolved.remove(key);
+				if (entry != null) {
+					unindex(keysByTargetPath, entry.targetPath, key);
+					unindex(keysByDirPath, entry.dirPath, key);
+					invalidationCount++;
+				}
+			}
+		}
+	}
+
+	private static final class Entry {
+		// null for a miss
+		private final VirtualFile file;
+		private final String targetPath;
+		private final String dirPath;
+
+		private Entry(@Nullable final VirtualFile file, @NotNull final String targetPath, @NotNull final String dirPath) {
+			this.file = file;
+			this.targetPath = targetPath;
+			this.dirPath = dirPath;
+		}
+	}
+
+	private static final class CacheKey {
+		private final VirtualFile dir;
+		private final String relativePath;
+
+		private CacheKey(@NotNull final VirtualFile dir, @NotNull final String relativePath) {
+			this.dir = dir;
+			this.relativePath = relativePath;
+		}
+
+		public boolean equals(final Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof CacheKey)) {
+				return false;
+			}
+
+			final CacheKey that = (CacheKey) o;
+			return dir.equals(that.dir) && relativePath.equals(that.relativePath);
+		}
+
+		public int hashCode() {
+			return 31 * dir.hashCode() + relativePath.hashCode();
+		}
+	}
+}
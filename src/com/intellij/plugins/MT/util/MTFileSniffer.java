@@ -0,0 +1,161 @@
+package com.intellij.plugins.MT.util;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 23:40
+ *
+ * Tells MT templates from other files without parsing them. A template has a template extension and,
+ * unless it is a .tpl, an MT directive ("<!-- " followed by an upper case keyword) in its first bytes.
+ * Directives are ASCII, so bytes are sniffed as they are, whatever the charset.
+ * The answer is kept on the file until its modification stamp changes.
+ */
+public final class MTFileSniffer {
+	private static final Logger LOG = Logger.getInstance(MTFileSniffer.class.getName());
+	/** Only edits before this offset can change the answer for a document. */
+	public static final int SNIFF_LENGTH = 8 * 1024;
+	private static final String TEMPLATE_ONLY_EXTENSION = ".tpl";
+	private static final Key<SniffResult> SNIFF_RESULT_KEY = Key.create("MT.sniffResult");
+
+	private MTFileSniffer() {
+	}
+
+	/**
+	 * Extension check only, for places which must not read content.
+	 */
+	public static boolean hasTemplateExtension(@NotNull final VirtualFile file) {
+		if (file.isDirectory()) {
+			return false;
+		}
+		return hasTemplateExtension(file.getName());
+	}
+
+	/**
+	 * Extension check of a file name, for files which may be gone already.
+	 */
+	public static boolean hasTemplateExtension(@NotNull final String fileName) {
+		for (String extension : MTDirectiveScanner.INCLUDE_EXTENSIONS) {
+			if (endsWithIgnoreCase(fileName, extension)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static boolean isTemplate(@NotNull final VirtualFile file) {
+		if (!file.isValid() || !hasTemplateExtension(file)) {
+			return false;
+		}
+		if (endsWithIgnoreCase(file.getName(), TEMPLATE_ONLY_EXTENSION)) {
+			return true;
+		}
+		if (file.getFileType().isBinary()) {
+			return false;
+		}
+
+		Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+		long stamp = document != null ? document.getModificationStamp() : file.getModificationStamp();
+		SniffResult result = file.getUserData(SNIFF_RESULT_KEY);
+		if (result == null || result.stamp != stamp) {
+			result = new SniffResult(stamp, document != null ? hasDirective(document.getCharsSequence()) : hasDirective(file));
+			file.putUserData(SNIFF_RESULT_KEY, result);
+		}
+		return result.template;
+	}
+
+	private static boolean hasDirective(@NotNull final VirtualFile file) {
+		byte[] bytes = new byte[SNIFF_LENGTH];
+		int length = 0;
+		try {
+			InputStream stream = file.getInputStream();
+			try {
+				int read;
+				while (length < bytes.length && (read = stream.read(bytes, length, bytes.length - length)) > 0) {
+					length += read;
+				}
+			} finally {
+				stream.close();
+			}
+		} catch (IOException e) {
+			LOG.debug("Cannot sniff " + file.getPath(), e);
+			return false;
+		}
+		return hasDirective(new ByteCharSequence(bytes, length));
+	}
+
+	/**
+	 * Looks for "<!--", optional whitespace and an upper case keyword of two letters or more in the first bytes of <code>text</code>.
+	 */
+	static boolean hasDirective(@NotNull final CharSequence text) {
+		int length = Math.min(text.length(), SNIFF_LENGTH);
+		for (int i = 0; i + 4 < length; i++) {
+			if (text.charAt(i) != '<' || text.charAt(i + 1) != '!' || text.charAt(i + 2) != '-' || text.charAt(i + 3) != '-') {
+				continue;
+			}
+			int keywordStart = i + 4;
+			while (keywordStart < length && MTDirectiveScanner.isWhitespace(text.charAt(keywordStart))) {
+				keywordStart++;
+			}
+			if (MTDirectiveScanner.getKeywordEnd(text, keywordStart, length) > 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean endsWithIgnoreCase(final String name, final String suffix) {
+		return name.regionMatches(true, name.length() - suffix.length(), suffix, 0, suffix.length());
+	}
+
+	private static final class SniffResult {
+		private final long stamp;
+		private final boolean template;
+
+		private SniffResult(final long stamp, final boolean template) {
+			this.stamp = stamp;
+			this.template = template;
+		}
+	}
+
+	private static final class ByteCharSequence implements CharSequence {
+		private final byte[] bytes;
+		private final int length;
+
+		private ByteCharSequence(final byte[] bytes, final int length) {
+			this.bytes = bytes;
+			this.length = length;
+		}
+
+		public int length() {
+			return length;
+		}
+
+		public char charAt(final int index) {
+			return (char) (bytes[index] & 0xFF);
+		}
+
+		public CharSequence subSequence(final int start, final int end) {
+			return toString().substring(start, end);
+		}
+
+		public String toString() {
+			char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = charAt(i);
+			}
+			return new String(chars);
+		}
+	}
+}
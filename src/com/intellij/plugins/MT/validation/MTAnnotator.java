@@ -0,0 +1,150 @@
+package com.intellij.plugins.MT.validation;
+
+import com.intellij.lang.annotation.AnnotationHolder;
+import com.intellij.lang.annotation.ExternalAnnotator;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.util.Computable;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.util.TextRange;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.plugins.MT.higlighter.EditorIncludeLinkParser;
+import com.intellij.plugins.MT.parser.MTDirectiveScanner;
+import com.intellij.plugins.MT.util.IncludePathCache;
+import com.intellij.plugins.MT.util.MTFileSniffer;
+import com.intellij.psi.PsiFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 21:50
+ *
+ * Reports INCLUDE directives whose template does not exist.
+ * Paths are collected with the directive scanner in the read action the daemon gives us, resolved
+ * together in the background, each distinct path once, and the result is kept for the file version.
+ * The version includes the invalidation count of {@link IncludePathCache}, so files appearing or
+ * going on disk are noticed although the annotated template did not change.
+ */
+public class MTAnnotator extends ExternalAnnotator<MTAnnotator.Includes, MTAnnotator.Unresolved> {
+	private static final MTDirectiveScanner INCLUDE_SCANNER = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+	private static final Key<Unresolved> UNRESOLVED_KEY = Key.create("MT.unresolvedIncludes");
+
+	static final class Includes {
+		private final PsiFile file;
+		private final VirtualFile dir;
+		private final long modificationStamp;
+		private final long invalidationCount;
+		// {start0, end0, start1, end1, ...} of the paths inside comments
+		private final int[] offsets;
+		private final String[] paths;
+
+		private Includes(final PsiFile file, final VirtualFile dir, final long modificationStamp, final long invalidationCount,
+		                 final int[] offsets, final String[] paths) {
+			this.file = file;
+			this.dir = dir;
+			this.modificationStamp = modificationStamp;
+			this.invalidationCount = invalidationCount;
+			this.offsets = offsets;
+			this.paths = paths;
+		}
+	}
+
+	static final class Unresolved {
+		private final long modificationStamp;
+		private final long invalidationCount;
+		private final List<TextRange> ranges;
+		private final List<String> paths;
+
+		private Unresolved(final long modificationStamp, final long invalidationCount, final List<TextRange> ranges, final List<String> paths) {
+			this.modificationStamp = modificationStamp;
+			this.invalidationCount = invalidationCount;
+			this.ranges = ranges;
+			this.paths = paths;
+		}
+	}
+
+	@Nullable
+	public Includes collectInformation(@NotNull final PsiFile file) {
+		VirtualFile virtualFile = file.getVirtualFile();
+		VirtualFile dir = virtualFile != null ? virtualFile.getParent() : null;
+		IncludePathCache cache = IncludePathCache.getInstance(file.getProject());
+		if (dir == null || cache == null || !MTFileSniffer.isTemplate(virtualFile)) {
+			return null;
+		}
+
+		CharSequence text = file.getViewProvider().getContents();
+		int[] found = INCLUDE_SCANNER.findIncludePaths(text, 0, text.length());
+		int count = 0;
+		for (int i = 0; i < found.length; i += 2) {
+			// outside of comments it is plain markup text, not a directive
+			if (EditorIncludeLinkParser.isComment(file, found[i])) {
+				found[count++] = found[i];
+				found[count++] = found[i + 1];
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+
+		int[] offsets = new int[count];
+		System.arraycopy(found, 0, offsets, 0, count);
+		String[] paths = new String[count / 2];
+		for (int i = 0; i < paths.length; i++) {
+			paths[i] = text.subSequence(offsets[2 * i], offsets[2 * i + 1]).toString();
+		}
+		return new Includes(file, dir, file.getModificationStamp(), cache.getInvalidationCount(), offsets, paths);
+	}
+
+	@Nullable
+	public Unresolved doAnnotate(final Includes includes) {
+		Unresolved cached = includes.file.getUserData(UNRESOLVED_KEY);
+		if (cached != null && cached.modificationStamp == includes.modificationStamp && cached.invalidationCount == includes.invalidationCount) {
+			return cached;
+		}
+
+		final IncludePathCache cache = IncludePathCache.getInstance(includes.file.getProject());
+		final Map<String, Boolean> resolved = ApplicationManager.getApplication().runReadAction(new Computable<Map<String, Boolean>>() {
+			public Map<String, Boolean> compute() {
+				Map<String, Boolean> result = new HashMap<String, Boolean>();
+				if (!includes.dir.isValid()) {
+					return result;
+				}
+				for (String path : includes.paths) {
+					if (!result.containsKey(path)) {
+						VirtualFile included = cache.resolve(includes.dir, path);
+						result.put(path, included != null && included.isValid());
+					}
+				}
+				return result;
+			}
+		});
+
+		List<TextRange> ranges = new ArrayList<TextRange>();
+		List<String> paths = new ArrayList<String>();
+		for (int i = 0; i < includes.paths.length; i++) {
+			if (Boolean.FALSE.equals(resolved.get(includes.paths[i]))) {
+				ranges.add(new TextRange(includes.offsets[2 * i], includes.offsets[2 * i + 1]));
+				paths.add(includes.paths[i]);
+			}
+		}
+		Unresolved unresolved = new Unresolved(includes.modificationStamp, includes.invalidationCount, ranges, paths);
+		includes.file.putUserData(UNRESOLVED_KEY, unresolved);
+		return unresolved;
+	}
+
+	public void apply(@NotNull final PsiFile file, final Unresolved unresolved, @NotNull final AnnotationHolder holder) {
+		if (unresolved == null || unresolved.modificationStamp != file.getModificationStamp()) {
+			return;
+		}
+		for (int i = 0; i < unresolved.ranges.size(); i++) {
+			holder.createErrorAnnotation(unresolved.ranges.get(i), "Cannot resolve included template '" + unresolved.paths.get(i) + "'");
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package com.intellij.plugins.MT.higlighter;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 15:20
+ *
+ * Runs random edits, queries and replacements against {@link IncludeLinkRangeStore} and against a plain
+ * list of ranges handled the way the highlighter did before the store, shifting every range one by one
+ * and scanning the whole list, and expects the same answers. Edits are made the way the highlighter makes
+ * them: ranges overlapping the changed text are forgotten, then the tail is shifted, so lazy shifts get
+ * mixed with adds, removes and replaces around the pending boundary.
+ */
+public class IncludeLinkRangeStoreTest extends TestCase {
+	private static final String[] PATHS = {"a.tpl", "b.html", "../c/d.tpl", "e.tpl"};
+	private static final int DOCUMENT_LENGTH = 3000;
+
+	public void testRandomOperationsMatchListBehaviour() {
+		for (int seed = 0; seed < 300; seed++) {
+			runRandomOperations(new Random(seed), 400);
+		}
+	}
+
+	public void testEditsAroundOnePlace() {
+		// consecutive edits near one offset keep the pending shift boundary in place
+		Random random = new Random(42);
+		IncludeLinkRangeStore store = new IncludeLinkRangeStore(null);
+		ListRanges list = new ListRanges();
+		for (int i = 0; i < 200; i++) {
+			add(store, list, i * 10, i * 10 + 5, PATHS[i % PATHS.length], true, true);
+		}
+		for (int i = 0; i < 500; i++) {
+			int offset = 1000 + random.nextInt(20);
+			edit(store, list, offset, random.nextInt(3), random.nextInt(3));
+			assertSame(store, list);
+			assertQueries(store, list, random);
+		}
+	}
+
+	private void runRandomOperations(final Random random, final int operationCount) {
+		IncludeLinkRangeStore store = new IncludeLinkRangeStore(null);
+		ListRanges list = new ListRanges();
+		for (int operation = 0; operation < operationCount; operation++) {
+			int kind = random.nextInt(10);
+			if (kind < 3) {
+				int start = random.nextInt(DOCUMENT_LENGTH);
+				int end = start + 1 + random.nextInt(12);
+				if (list.getOverlapping(start, end).isEmpty()) {
+					add(store, list, start, end, PATHS[random.nextInt(PATHS.length)], random.nextBoolean(), random.nextBoolean());
+				}
+			} else if (kind < 5) {
+				edit(store, list, random.nextInt(DOCUMENT_LENGTH), random.nextInt(15), random.nextInt(15));
+			} else if (kind == 5 && !list.ranges.isEmpty()) {
+				IncludeLinkTextRange range = list.ranges.get(random.nextInt(list.ranges.size()));
+				assertTrue(store.remove(new IncludeLinkTextRange(null, range.getStartOffset(), range.getEndOffset(), range.getFilePathAsWritten(), true)));
+				list.ranges.remove(range);
+				assertFalse(store.remove(new IncludeLinkTextRange(null, range.getStartOffset(), range.getEndOffset(), range.getFilePathAsWritten(), true)));
+			} else if (kind == 6 && !list.ranges.isEmpty()) {
+				setFlag(store, list, random);
+			} else if (kind == 7) {
+				replace(store, list, random);
+			} else if (kind == 8 && random.nextInt(50) == 0) {
+				store.clear();
+				list.ranges.clear();
+			} else {
+				assertQueries(store, list, random);
+			}
+			assertSame(store, list);
+		}
+	}
+
+	private static void add(final IncludeLinkRangeStore store, final ListRanges list, final int start, final int end,
+	                        final String path, final boolean active, final boolean resolved) {
+		store.add(new IncludeLinkTextRange(null, start, end, path, active, resolved));
+		list.ranges.add(new IncludeLinkTextRange(null, start, end, path, active, resolved));
+	}
+
+	/**
+	 * Replaces <code>oldLength</code> characters at <code>offset</code> by <code>newLength</code> ones.
+	 */
+	private static void edit(final IncludeLinkRangeStore store, final ListRanges list, final int offset, final int oldLength, final int newLength) {
+		if (oldLength > 0) {
+			List<IncludeLinkTextRange> forgotten = store.getOverlapping(offset, offset + oldLength);
+			assertEquals(describe(list.getOverlapping(offset, offset + oldLength)), describe(forgotten));
+			store.removeAll(forgotten);
+			list.ranges.removeAll(list.getOverlapping(offset, offset + oldLength));
+		}
+		if (newLength != oldLength) {
+			store.shiftTail(offset, newLength - oldLength);
+			list.shiftTail(offset, newLength - oldLength);
+		}
+	}
+
+	private static void setFlag(final IncludeLinkRangeStore store, final ListRanges list, final Random random) {
+		IncludeLinkTextRange listRange = list.ranges.get(random.nextInt(list.ranges.size()));
+		IncludeLinkTextRange storeRange = null;
+		for (IncludeLinkTextRange range : store.getIntersecting(listRange.getStartOffset(), listRange.getEndOffset())) {
+			if (range.equals(listRange)) {
+				storeRange = range;
+			}
+		}
+		assertNotNull(storeRange);
+		boolean value = random.nextBoolean();
+		if (random.nextBoolean()) {
+			store.setActive(storeRange, value);
+			listRange.setActive(value);
+			assertEquals(value, storeRange.isActive());
+		} else {
+			store.setResolved(storeRange, value);
+			listRange.setResolved(value);
+			assertEquals(value, storeRange.isResolved());
+		}
+	}
+
+	/**
+	 * Replaces the ranges touching a random region by a mix of equal ones, some with other flags, and new ones.
+	 */
+	private static void replace(final IncludeLinkRangeStore store, final ListRanges list, final Random random) {
+		int start = random.nextInt(DOCUMENT_LENGTH);
+		int end = start + random.nextInt(200);
+
+		List<IncludeLinkTextRange> storeNew = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> listNew = new ArrayList<IncludeLinkTextRange>();
+		for (IncludeLinkTextRange range : list.getIntersecting(start, end)) {
+			if (range.getStartOffset() >= start && range.getEndOffset() <= end && random.nextBoolean()) {
+				boolean active = random.nextInt(4) == 0 ? !range.isActive() : range.isActive();
+				boolean resolved = random.nextInt(4) == 0 ? !range.isResolved() : range.isResolved();
+				storeNew.add(new IncludeLinkTextRange(null, range.getStartOffset(), range.getEndOffset(), range.getFilePathAsWritten(), active, resolved));
+				listNew.add(new IncludeLinkTextRange(null, range.getStartOffset(), range.getEndOffset(), range.getFilePathAsWritten(), active, resolved));
+			}
+		}
+		for (int i = random.nextInt(4); i > 0; i--) {
+			int newStart = start + random.nextInt(Math.max(1, end - start));
+			int newEnd = newStart + 1 + random.nextInt(8);
+			if (newEnd > end || overlapsAny(listNew, newStart, newEnd)) {
+				continue;
+			}
+			String path = PATHS[random.nextInt(PATHS.length)];
+			boolean active = random.nextBoolean();
+			storeNew.add(new IncludeLinkTextRange(null, newStart, newEnd, path, active, true));
+			listNew.add(new IncludeLinkTextRange(null, newStart, newEnd, path, active, true));
+		}
+		Collections.sort(storeNew, BY_START);
+		Collections.sort(listNew, BY_START);
+
+		List<IncludeLinkTextRange> forgotten = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> remembered = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> changed = new ArrayList<IncludeLinkTextRange>();
+		store.replace(start, end, storeNew, forgotten, remembered, changed);
+
+		List<IncludeLinkTextRange> listForgotten = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> listRemembered = new ArrayList<IncludeLinkTextRange>();
+		List<IncludeLinkTextRange> listChanged = new ArrayList<IncludeLinkTextRange>();
+		list.replace(start, end, listNew, listForgotten, listRemembered, listChanged);
+
+		assertEquals(describe(listForgotten), describe(forgotten));
+		assertEquals(describe(listRemembered), describe(remembered));
+		assertEquals(describe(listChanged), describe(changed));
+	}
+
+	private static boolean overlapsAny(final List<IncludeLinkTextRange> ranges, final int start, final int end) {
+		for (IncludeLinkTextRange range : ranges) {
+			if (Math.max(range.getStartOffset(), start) < Math.min(range.getEndOffset(), end)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void assertQueries(final IncludeLinkRangeStore store, final ListRanges list, final Random random) {
+		int start = random.nextInt(DOCUMENT_LENGTH);
+		int end = start + random.nextInt(60) - 5;
+		assertEquals(describe(list.getIntersecting(start, end)), describe(store.getIntersecting(start, end)));
+		assertEquals(describe(list.getOverlapping(start, end)), describe(store.getOverlapping(start, end)));
+		assertEquals(describe(list.findAt(start)), describe(store.findAt(start)));
+
+		List<String> paths = Arrays.asList(PATHS[random.nextInt(PATHS.length)], PATHS[random.nextInt(PATHS.length)], "missing.tpl");
+		assertEquals(describe(list.getWithPaths(paths)), describe(store.getWithPaths(paths)));
+	}
+
+	private static void assertSame(final IncludeLinkRangeStore store, final ListRanges list) {
+		String expected = describe(list.sorted());
+		assertEquals(expected, describe(store.toList()));
+		List<IncludeLinkTextRange> iterated = new ArrayList<IncludeLinkTextRange>();
+		for (IncludeLinkTextRange range : store) {
+			iterated.add(range);
+		}
+		assertEquals(expected, describe(iterated));
+		assertEquals(list.ranges.size(), store.size());
+		assertEquals(list.ranges.isEmpty(), store.isEmpty());
+	}
+
+	private static String describe(final IncludeLinkTextRange range) {
+		if (range == null) {
+			return "null";
+		}
+		return range.getStartOffset() + "-" + range.getEndOffset() + ":" + range.getFilePathAsWritten()
+				+ (range.isActive() ? ":active" : "") + (range.isResolved() ? ":resolved" : "");
+	}
+
+	private static String describe(final Collection<IncludeLinkTextRange> ranges) {
+		List<IncludeLinkTextRange> sorted = new ArrayList<IncludeLinkTextRange>(ranges);
+		Collections.sort(sorted, BY_START);
+		StringBuilder builder = new StringBuilder("[");
+		for (IncludeLinkTextRange range : sorted) {
+			builder.append(builder.length() > 1 ? ", " : "").append(describe(range));
+		}
+		return builder.append(']').toString();
+	}
+
+	private static final Comparator<IncludeLinkTextRange> BY_START = new Comparator<IncludeLinkTextRange>() {
+		public int compare(final IncludeLinkTextRange o1, final IncludeLinkTextRange o2) {
+			return o1.getStartOffset() - o2.getStartOffset();
+		}
+	};
+
+	/**
+	 * Ranges in an unsorted list, the way the highlighter kept them before the store.
+	 */
+	private static final class ListRanges {
+		private final List<IncludeLinkTextRange> ranges = new ArrayList<IncludeLinkTextRange>();
+
+		void shiftTail(final int offset, final int delta) {
+			for (IncludeLinkTextRange range : ranges) {
+				if (range.getStartOffset() >= offset) {
+					range.shift(delta);
+				}
+			}
+		}
+
+		List<IncludeLinkTextRange> getIntersecting(final int start, final int end) {
+			List<IncludeLinkTextRange> result = new ArrayList<IncludeLinkTextRange>();
+			for (IncludeLinkTextRange range : ranges) {
+				if (Math.max(range.getStartOffset(), start) <= Math.min(range.getEndOffset(), end)) {
+					result.add(range);
+				}
+			}
+			return result;
+		}
+
+		List<IncludeLinkTextRange> getOverlapping(final int start, final int end) {
+			List<IncludeLinkTextRange> result = new ArrayList<IncludeLinkTextRange>();
+			for (IncludeLinkTextRange range : ranges) {
+				if (Math.max(range.getStartOffset(), start) < Math.min(range.getEndOffset(), end)) {
+					result.add(range);
+				}
+			}
+			return result;
+		}
+
+		IncludeLinkTextRange findAt(final int offset) {
+			// the first in offset order, where two ranges meet at the offset
+			for (IncludeLinkTextRange range : sorted()) {
+				if (range.getStartOffset() <= offset && range.getEndOffset() >= offset) {
+					return range;
+				}
+			}
+			return null;
+		}
+
+		List<IncludeLinkTextRange> getWithPaths(final Collection<String> paths) {
+			List<IncludeLinkTextRange> result = new ArrayList<IncludeLinkTextRange>();
+			for (IncludeLinkTextRange range : ranges) {
+				if (paths.contains(range.getFilePathAsWritten())) {
+					result.add(range);
+				}
+			}
+			return result;
+		}
+
+		void replace(final int start, final int end, final List<IncludeLinkTextRange> newRanges,
+		             final List<IncludeLinkTextRange> forgotten, final List<IncludeLinkTextRange> remembered,
+		             final List<IncludeLinkTextRange> changed) {
+			for (IncludeLinkTextRange range : getIntersecting(start, end)) {
+				int index = newRanges.indexOf(range);
+				if (index < 0) {
+					ranges.remove(range);
+					forgotten.add(range);
+					continue;
+				}
+				IncludeLinkTextRange newRange = newRanges.get(index);
+				if (newRange.isActive() != range.isActive() || newRange.isResolved() != range.isResolved()) {
+					range.setActive(newRange.isActive());
+					range.setResolved(newRange.isResolved());
+					changed.add(range);
+				}
+			}
+			for (IncludeLinkTextRange newRange : newRanges) {
+				if (!ranges.contains(newRange)) {
+					ranges.add(newRange);
+					remembered.add(newRange);
+				}
+			}
+		}
+
+		List<IncludeLinkTextRange> sorted() {
+			List<IncludeLinkTextRange> result = new ArrayList<IncludeLinkTextRange>(ranges);
+			Collections.sort(result, BY_START);
+			return result;
+		}
+	}
+}
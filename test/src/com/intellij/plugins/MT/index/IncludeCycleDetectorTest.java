@@ -0,0 +1,45 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.util.ui.UIUtil;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 16:40
+ *
+ * Cycles come from the include index, so an INCLUDE outside a comment must not close one.
+ * Walks run on a pooled thread and report back on the event dispatch thread, the test pumps events until then.
+ */
+public class IncludeCycleDetectorTest extends LightCodeInsightFixtureTestCase {
+	private static final long TIMEOUT = 10000;
+
+	public void testIncludesOutsideCommentsMakeNoCycle() throws InterruptedException {
+		VirtualFile c1 = myFixture.addFileToProject("c1.html", "<!-- INCLUDE c2.html -->").getVirtualFile();
+		myFixture.addFileToProject("c2.html", "<!-- INCLUDE c1.html -->");
+		VirtualFile a = myFixture.addFileToProject("a.html", "<p>INCLUDE b.html</p>").getVirtualFile();
+		VirtualFile b = myFixture.addFileToProject("b.html", "<!-- MT --> INCLUDE a.html").getVirtualFile();
+		VirtualFile self = myFixture.addFileToProject("self.html", "<!-- -->INCLUDE self.html").getVirtualFile();
+
+		IncludeCycleDetector detector = IncludeCycleDetector.getInstance(getProject());
+		// asked in one pass, so all of them are found by the same walk
+		assertFalse(detector.isInCycle(c1));
+		assertFalse(detector.isInCycle(a));
+		assertFalse(detector.isInCycle(b));
+		assertFalse(detector.isInCycle(self));
+
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (!detector.isInCycle(c1)) {
+			assertTrue("no walk done in time", System.currentTimeMillis() < deadline);
+			UIUtil.dispatchAllInvocationEvents();
+			Thread.sleep(10);
+		}
+
+		assertFalse(detector.isInCycle(a));
+		assertFalse(detector.isInCycle(b));
+		assertFalse(detector.isCycleEdge(a, b));
+		assertFalse(detector.isInCycle(self));
+	}
+}
@@ -0,0 +1,41 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 16:10
+ *
+ * Only INCLUDEs inside HTML comments become edges of the include graph, as in the highlighter,
+ * the annotator, Find Usages and the command line analyzer.
+ */
+public class MTIncludeIndexTest extends LightCodeInsightFixtureTestCase {
+
+	public void testIncludesOutsideCommentsAreLeftOut() {
+		myFixture.addFileToProject("part.html", "<!-- MT -->part");
+		myFixture.addFileToProject("other.html", "<!-- MT -->other");
+		VirtualFile main = myFixture.addFileToProject("main.html",
+				"<!-- INCLUDE part.html -->\n" +
+				"<p>INCLUDE other.html</p>\n" +
+				"<!-- -->INCLUDE other.html\n" +
+				"<!-- <!-- INCLUDE part.html --> INCLUDE other.html -->\n").getVirtualFile();
+
+		List<String> paths = new ArrayList<String>();
+		for (IncludeEdge edge : MTIncludeIndex.getIncludes(getProject(), main)) {
+			paths.add(edge.getPath());
+		}
+		assertEquals("[part.html, part.html]", paths.toString());
+		assertEquals(1, MTIncludeIndex.getIncludedFiles(getProject(), main).size());
+	}
+
+	public void testCommentOpenedBeforeLineCounts() {
+		VirtualFile main = myFixture.addFileToProject("main.html", "<!--\n  INCLUDE part.html\n-->\nINCLUDE part.html\n").getVirtualFile();
+		assertEquals(1, MTIncludeIndex.getIncludes(getProject(), main).size());
+	}
+}
@@ -0,0 +1,68 @@
+package com.intellij.plugins.MT.index;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+import com.intellij.util.ui.UIUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 17:30
+ *
+ * A batch hands out the templates including a changed name, found in the include index, so a template
+ * mentioning the name outside a comment is not among them.
+ * Batches are processed on their own thread and handed out on the event dispatch thread, the test pumps events until then.
+ */
+public class TemplateChangeBatcherTest extends LightCodeInsightFixtureTestCase {
+	private static final long TIMEOUT = 10000;
+
+	public void testIncludersOfDeletedTemplate() throws InterruptedException {
+		VirtualFile includer = myFixture.addFileToProject("main.html", "<!-- INCLUDE part.html -->").getVirtualFile();
+		VirtualFile mention = myFixture.addFileToProject("text.html", "<!-- MT --><p>INCLUDE part.html</p>").getVirtualFile();
+		final VirtualFile part = myFixture.addFileToProject("part.html", "<p>part</p>").getVirtualFile();
+
+		final Set<VirtualFile> changedTemplates = new HashSet<VirtualFile>();
+		final Set<String> changedPaths = new HashSet<String>();
+		TemplateChangeBatcher.Listener listener = new TemplateChangeBatcher.Listener() {
+			public void templatesChanged(@NotNull final Set<String> paths, @NotNull final Set<VirtualFile> templates, final boolean directoriesChanged) {
+				assertFalse(directoriesChanged);
+				changedPaths.addAll(paths);
+				changedTemplates.addAll(templates);
+			}
+		};
+		TemplateChangeBatcher batcher = TemplateChangeBatcher.getInstance(getProject());
+		batcher.addListener(listener);
+		try {
+			final String partPath = part.getPath();
+			ApplicationManager.getApplication().runWriteAction(new Runnable() {
+				public void run() {
+					try {
+						part.delete(TemplateChangeBatcherTest.this);
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			});
+
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (changedPaths.isEmpty()) {
+				assertTrue("no batch in time", System.currentTimeMillis() < deadline);
+				UIUtil.dispatchAllInvocationEvents();
+				Thread.sleep(10);
+			}
+
+			assertTrue(changedPaths.contains(partPath));
+			assertTrue(changedTemplates.contains(includer));
+			assertFalse(changedTemplates.contains(mention));
+		} finally {
+			batcher.removeListener(listener);
+		}
+	}
+}
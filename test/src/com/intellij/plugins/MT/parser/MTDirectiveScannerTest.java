@@ -0,0 +1,57 @@
+package com.intellij.plugins.MT.parser;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 18:00
+ *
+ * Include paths the scanner finds, given as the text between their offsets.
+ */
+public class MTDirectiveScannerTest extends TestCase {
+	private final MTDirectiveScanner scanner = new MTDirectiveScanner(MTDirectiveScanner.INCLUDE);
+
+	public void testPlainInclude() {
+		assertPaths("<!-- INCLUDE a.html -->", "a.html");
+		assertPaths("<!-- INCLUDE\n\tdir/a.tpl INCLUDE b.html -->", "dir/a.tpl", "b.html");
+	}
+
+	public void testNoPath() {
+		assertPaths("<!-- INCLUDE a.htm -->");
+		assertPaths("<!-- INCLUDE .html -->");
+		assertPaths("<!-- XINCLUDE a.html INCLUDEb.html -->");
+	}
+
+	public void testLongestPathPrefix() {
+		assertPaths("<!-- INCLUDE a.html.bak.tpl, -->", "a.html.bak.tpl");
+		assertPaths("<!-- INCLUDE a.htmlx -->");
+	}
+
+	public void testIncludeRightAfterPath() {
+		assertPaths("<!-- INCLUDE a.html,INCLUDE b.html -->", "a.html", "b.html");
+		assertPaths("<!-- INCLUDE a.html;INCLUDE b.tpl;INCLUDE c.html -->", "a.html", "b.tpl", "c.html");
+	}
+
+	public void testWordBoundaryAtEndOffset() {
+		String text = "<!-- INCLUDE a.htmlx -->";
+		assertPaths(text, text.indexOf('x'), "a.html");
+		assertPaths(text);
+	}
+
+	private void assertPaths(final String text, final String... expected) {
+		assertPaths(text, text.length(), expected);
+	}
+
+	private void assertPaths(final String text, final int endOffset, final String... expected) {
+		int[] paths = scanner.findIncludePaths(text, 0, endOffset);
+		String[] actual = new String[paths.length / 2];
+		for (int i = 0; i < actual.length; i++) {
+			actual[i] = text.substring(paths[2 * i], paths[2 * i + 1]);
+		}
+		assertEquals(text, Arrays.asList(expected), Arrays.asList(actual));
+	}
+}
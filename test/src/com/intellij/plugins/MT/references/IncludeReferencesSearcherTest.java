@@ -0,0 +1,39 @@
+package com.intellij.plugins.MT.references;
+
+import com.intellij.openapi.editor.markup.GutterIconRenderer;
+import com.intellij.psi.PsiFile;
+import com.intellij.psi.PsiReference;
+import com.intellij.psi.search.searches.ReferencesSearch;
+import com.intellij.testFramework.fixtures.LightCodeInsightFixtureTestCase;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Created by IntelliJ IDEA.
+ * User: berkel
+ * Date: 18.10.26
+ * Time: 17:05
+ *
+ * Find Usages and the included by gutter icon must agree on what includes a template.
+ */
+public class IncludeReferencesSearcherTest extends LightCodeInsightFixtureTestCase {
+
+	public void testGutterCountsWhatFindUsagesFinds() {
+		myFixture.addFileToProject("one.html", "<!-- INCLUDE part.html -->\n<!-- INCLUDE part.html -->");
+		myFixture.addFileToProject("two.html", "<p><!-- INCLUDE part.html --></p>");
+		myFixture.addFileToProject("text.html", "<!-- MT --><p>INCLUDE part.html</p>");
+		PsiFile part = myFixture.addFileToProject("part.html", "<caret><p>part</p>");
+
+		Collection<PsiReference> references = ReferencesSearch.search(part).findAll();
+		assertEquals(3, references.size());
+		for (PsiReference reference : references) {
+			assertFalse("text.html".equals(reference.getElement().getContainingFile().getName()));
+		}
+
+		myFixture.configureFromExistingVirtualFile(part.getVirtualFile());
+		List<GutterIconRenderer> gutters = myFixture.findGuttersAtCaret();
+		assertEquals(1, gutters.size());
+		assertEquals("Included by 2 templates", gutters.get(0).getTooltipText());
+	}
+}